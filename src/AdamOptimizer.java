@@ -0,0 +1,51 @@
+/**
+ * Adam, which steps each weight along a decaying average of its gradients, divided by the root of a decaying average
+ * of its squared gradients. Both averages start at zero, so their bias is corrected by scaling the learning rate of
+ * each step, as in the efficient form given by Kingma and Ba.
+ */
+public class AdamOptimizer extends Optimizer {
+    // The fraction of the first moment kept from one update to the next.
+    private final double beta1;
+    // The fraction of the second moment kept from one update to the next.
+    private final double beta2;
+    // Added to the root of the second moment so a weight with tiny gradients does not take huge steps.
+    private final double epsilon;
+
+    /**
+     * Creates an Adam optimizer with the usual betas of 0.9 and 0.999 and an epsilon of 1e-8.
+     */
+    public AdamOptimizer() {
+        this(0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * @param beta1   The fraction of the first moment kept from one update to the next, [0.0,1.0).
+     * @param beta2   The fraction of the second moment kept from one update to the next, [0.0,1.0).
+     * @param epsilon Added to the root of the second moment, above 0.
+     */
+    public AdamOptimizer(double beta1, double beta2, double epsilon) {
+        super(2);
+        if (beta1 < 0.0 || beta1 >= 1.0 || beta2 < 0.0 || beta2 >= 1.0) {
+            throw new IllegalArgumentException("Error: Expected betas in [0, 1), got " + beta1 + " and " + beta2);
+        }
+        if (epsilon <= 0.0) {
+            throw new IllegalArgumentException("Error: Expected an epsilon above 0, got " + epsilon);
+        }
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected double update(double[] values, double[] gradients, double[][] state, int length, double learningRate,
+                            double scale, long step) {
+        double stepSize = learningRate * Math.sqrt(1.0 - Math.pow(beta2, step)) / (1.0 - Math.pow(beta1, step));
+        return Kernels.INSTANCE.adam(values, gradients, state[0], state[1], length, scale, stepSize, beta1, beta2,
+                epsilon);
+    }
+
+    @Override
+    public String toString() {
+        return "Adam(" + beta1 + ", " + beta2 + ")";
+    }
+}
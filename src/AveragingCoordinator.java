@@ -0,0 +1,345 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Coordinates data-parallel training across several processes by parameter averaging. Each AveragingWorker trains its
+ * own copy of the network on its shard of the data for a number of mini-batches, and then sends the change it made to
+ * the weights since the last round. The coordinator averages the changes of every worker, weighted by the examples
+ * each trained on, and sends the average back, which every worker adds to the same shared weights, so all of them
+ * start the next round from identical weights.
+ * <p>
+ * The protocol is plain TCP with big-endian values. A worker opens with MAGIC, and is answered with its index, the
+ * number of workers, the number of mini-batches per round, the encoding of the weights, the learning rate, the size and
+ * activation function of each layer and then the initial weights as doubles. Each round, a worker sends the number of
+ * examples it trained on followed by its change to every weight and bias, layer by layer, and is answered by the
+ * number of workers still training followed by the averaged change. A worker that has finished sends -1 instead, and
+ * takes no further part. Changes are sent as doubles, or rounded to floats with FLOAT to halve the traffic; every
+ * process applies the same rounded values, so the weights stay identical across them either way.
+ * <pre>
+ * try (AveragingCoordinator coordinator = new AveragingCoordinator(nn, 7000, 4, 8, AveragingCoordinator.FLOAT)) {
+ *     coordinator.run();
+ * }
+ * nn.saveBinary("model.bin");
+ * </pre>
+ */
+public class AveragingCoordinator implements AutoCloseable {
+    // The first int a worker sends, 'MLJA' in little-endian.
+    static final int MAGIC = 0x414A4C4D;
+    // The encodings of the weights sent each round.
+    public static final int DOUBLE = 0;
+    public static final int FLOAT = 1;
+
+    // The network being trained, which ends up with the final averaged weights.
+    private final NeuralNetwork network;
+    // A copy of the network the final weights are unflattened into, before they are copied into the network.
+    private final NeuralNetwork copy;
+    private final int workers;
+    private final int syncSteps;
+    private final int encoding;
+    private final ServerSocket serverSocket;
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    // The number of weights and biases, and the buffers they are encoded through.
+    private final int parameters;
+    private final double[] shared;
+    private final double[] average;
+    private final double[] change;
+    private final ByteBuffer buffer;
+    private long rounds;
+    private long bytes;
+
+    /**
+     * Listens for workers on the loopback interface only, for workers in other JVMs on the same machine.
+     * @param network   The network to be trained, whose current weights every worker starts from.
+     * @param port      The port to listen on, or 0 for any free port, see getPort().
+     * @param workers   The number of workers to wait for.
+     * @param syncSteps The number of mini-batches each worker trains on between rounds.
+     * @param encoding  DOUBLE or FLOAT, the encoding of the changes sent each round.
+     * @throws IOException Thrown if the port cannot be listened on.
+     */
+    public AveragingCoordinator(NeuralNetwork network, int port, int workers, int syncSteps, int encoding)
+            throws IOException {
+        this(network, port, workers, syncSteps, encoding, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Listens for workers on the given address. Workers are not authenticated, so any host that can reach the address
+     * can send changes to the weights; only bind beyond loopback on a trusted network.
+     * @param network   The network to be trained, whose current weights every worker starts from.
+     * @param port      The port to listen on, or 0 for any free port, see getPort().
+     * @param workers   The number of workers to wait for.
+     * @param syncSteps The number of mini-batches each worker trains on between rounds.
+     * @param encoding  DOUBLE or FLOAT, the encoding of the changes sent each round.
+     * @param address   The local address to listen on, e.g. InetAddress.getByName("0.0.0.0") for every interface.
+     * @throws IOException Thrown if the port cannot be listened on.
+     */
+    public AveragingCoordinator(NeuralNetwork network, int port, int workers, int syncSteps, int encoding,
+                                InetAddress address) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Error: Expected at least 1 worker, got " + workers);
+        }
+        if (syncSteps < 1) {
+            throw new IllegalArgumentException("Error: Expected at least 1 step between rounds, got " + syncSteps);
+        }
+        if (encoding != DOUBLE && encoding != FLOAT) {
+            throw new IllegalArgumentException("Error: Unknown encoding " + encoding);
+        }
+        this.network = network;
+        copy = new NeuralNetwork(network);
+        this.workers = workers;
+        this.syncSteps = syncSteps;
+        this.encoding = encoding;
+        sockets = new Socket[workers];
+        in = new DataInputStream[workers];
+        out = new DataOutputStream[workers];
+        parameters = parameters(network.network);
+        shared = new double[parameters];
+        average = new double[parameters];
+        change = new double[parameters];
+        buffer = ByteBuffer.allocate(parameters * 8);
+        serverSocket = new ServerSocket(port, 50, address);
+    }
+
+    /**
+     * @return The port the coordinator listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Waits for every worker to connect, and then averages their changes round after round until all of them have
+     * finished, leaving the final weights in the network.
+     * @throws IOException Thrown if a worker sends something unexpected or its connection fails.
+     */
+    public void run() throws IOException {
+        flatten(network.network, shared);
+        for (int worker = 0; worker < workers; worker++) {
+            Socket socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+            sockets[worker] = socket;
+            in[worker] = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out[worker] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            int magic = in[worker].readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Error: Expected a worker to open with " + Integer.toHexString(MAGIC) +
+                        ", got " + Integer.toHexString(magic));
+            }
+            handshake(worker);
+        }
+
+        boolean[] training = new boolean[workers];
+        Arrays.fill(training, true);
+        int active = workers;
+        while (active > 0) {
+            // Sum the changes in worker order, so the average does not depend on which worker is quickest.
+            Arrays.fill(average, 0.0);
+            long examples = 0;
+            for (int worker = 0; worker < workers; worker++) {
+                if (!training[worker])
+                    continue;
+                int count = in[worker].readInt();
+                if (count < 0) {
+                    training[worker] = false;
+                    active--;
+                    continue;
+                }
+                read(in[worker], encoding, buffer, change);
+                bytes += 4 + (long) parameters * width(encoding);
+                for (int i = 0; i < parameters; i++) {
+                    average[i] += count * change[i];
+                }
+                examples += count;
+            }
+            if (active == 0)
+                break;
+            double scale = examples == 0 ? 0.0 : 1.0 / examples;
+            for (int i = 0; i < parameters; i++) {
+                average[i] *= scale;
+            }
+            // Round the average as it is sent, so the shared weights here match the workers' exactly.
+            encode(average, encoding, buffer);
+            decode(buffer, encoding, average);
+            for (int i = 0; i < parameters; i++) {
+                shared[i] += average[i];
+            }
+            for (int worker = 0; worker < workers; worker++) {
+                if (!training[worker])
+                    continue;
+                out[worker].writeInt(active);
+                out[worker].write(buffer.array(), 0, buffer.limit());
+                out[worker].flush();
+                bytes += 4 + buffer.limit();
+            }
+            rounds++;
+        }
+        unflatten(shared, copy.network);
+        network.copyWeightFrom(copy);
+    }
+
+    /**
+     * Tells a worker its place, the settings and the network it trains, starting from the shared weights.
+     */
+    private void handshake(int worker) throws IOException {
+        DataOutputStream stream = out[worker];
+        stream.writeInt(worker);
+        stream.writeInt(workers);
+        stream.writeInt(syncSteps);
+        stream.writeInt(encoding);
+        stream.writeDouble(network.learningRate);
+        stream.writeInt(network.layers);
+        for (Layer layer : network.network) {
+            stream.writeInt(layer.size);
+            stream.writeInt(layer.activationFunction);
+        }
+        encode(shared, DOUBLE, buffer);
+        stream.write(buffer.array(), 0, buffer.limit());
+        stream.flush();
+        bytes += buffer.limit();
+    }
+
+    /**
+     * @return The number of rounds averaged so far.
+     */
+    public long getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return The number of bytes of changes sent and received so far, not counting the handshakes' headers.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Socket socket : sockets) {
+            if (socket != null)
+                socket.close();
+        }
+        serverSocket.close();
+    }
+
+    /**
+     * @return The number of weights and biases in the layers after the input layer.
+     */
+    static int parameters(Layer[] layers) {
+        int count = 0;
+        for (int layer = 1; layer < layers.length; layer++) {
+            count += layers[layer].weights.length + layers[layer].size;
+        }
+        return count;
+    }
+
+    /**
+     * Copies every weight and bias of the layers into <code>values</code>, layer by layer, weights first.
+     */
+    static void flatten(Layer[] layers, double[] values) {
+        int offset = 0;
+        for (int layer = 1; layer < layers.length; layer++) {
+            Layer current = layers[layer];
+            System.arraycopy(current.weights, 0, values, offset, current.weights.length);
+            offset += current.weights.length;
+            System.arraycopy(current.biases, 0, values, offset, current.size);
+            offset += current.size;
+        }
+    }
+
+    /**
+     * Copies <code>values</code>, as written by flatten(), back into the layers' weights and biases.
+     */
+    static void unflatten(double[] values, Layer[] layers) {
+        int offset = 0;
+        for (int layer = 1; layer < layers.length; layer++) {
+            Layer current = layers[layer];
+            System.arraycopy(values, offset, current.weights, 0, current.weights.length);
+            offset += current.weights.length;
+            System.arraycopy(values, offset, current.biases, 0, current.size);
+            offset += current.size;
+        }
+    }
+
+    /**
+     * @return The bytes taken by each value in the given encoding.
+     */
+    static int width(int encoding) {
+        return encoding == FLOAT ? 4 : 8;
+    }
+
+    /**
+     * Encodes the values into the buffer, which is left ready to be read from its start.
+     */
+    static void encode(double[] values, int encoding, ByteBuffer buffer) {
+        buffer.clear();
+        if (encoding == FLOAT) {
+            for (double value : values) {
+                buffer.putFloat((float) value);
+            }
+        } else {
+            buffer.asDoubleBuffer().put(values);
+            buffer.position(values.length * 8);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Decodes the values from the start of the buffer.
+     */
+    static void decode(ByteBuffer buffer, int encoding, double[] values) {
+        if (encoding == FLOAT) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.getFloat(i * 4);
+            }
+        } else {
+            buffer.asDoubleBuffer().get(values);
+        }
+    }
+
+    /**
+     * Reads values in the given encoding from the stream, through the buffer.
+     */
+    static void read(DataInputStream stream, int encoding, ByteBuffer buffer, double[] values) throws IOException {
+        buffer.clear();
+        buffer.limit(values.length * width(encoding));
+        stream.readFully(buffer.array(), 0, buffer.limit());
+        decode(buffer, encoding, values);
+    }
+
+    /**
+     * Runs a coordinator for a random network of the given shape, waiting for the given number of workers, and saves
+     * the trained network.
+     * <pre>
+     * java AveragingCoordinator &lt;shape&gt; &lt;port&gt; &lt;workers&gt; [sync steps] [double | float] [model file]
+     *     [bind address]
+     * </pre>
+     * The coordinator listens on loopback unless a bind address is given.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: java AveragingCoordinator <shape> <port> <workers> [sync steps] " +
+                    "[double | float] [model file] [bind address]");
+            System.exit(1);
+        }
+        NeuralNetwork network = NetworkBenchmark.network(args[0]);
+        int syncSteps = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int encoding = args.length > 4 && args[4].equals("float") ? FLOAT : DOUBLE;
+        InetAddress address = args.length > 6 ? InetAddress.getByName(args[6]) : InetAddress.getLoopbackAddress();
+        try (AveragingCoordinator coordinator = new AveragingCoordinator(network, Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]), syncSteps, encoding, address)) {
+            coordinator.run();
+            System.out.printf("Rounds: %d | Bytes: %d%n", coordinator.getRounds(), coordinator.getBytes());
+        }
+        if (args.length > 5)
+            network.saveBinary(args[5]);
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A single process of data-parallel training, coordinated by an AveragingCoordinator. The worker builds its network
+ * from the coordinator's handshake, trains it with trainBatch() on its shard of the data, and every few mini-batches
+ * sends the change it made to the weights and replaces them with the shared weights plus the average change of every
+ * worker. See AveragingCoordinator for the protocol.
+ * <pre>
+ * try (AveragingWorker worker = new AveragingWorker("localhost", 7000)) {
+ *     worker.getNetwork().setOptimizer(new AdamOptimizer());
+ *     worker.train(shardInputs, shardExpectedOutputs, 10, 32);
+ * }
+ * </pre>
+ * An optimizer set on the network keeps its state local to the worker.
+ */
+public class AveragingWorker implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int index;
+    private final int workers;
+    private final int syncSteps;
+    private final int encoding;
+    // The network trained locally, and the weights shared by every worker as of the last round.
+    private final NeuralNetwork network;
+    private final NeuralNetwork shared;
+    // The local and shared weights flattened, and the buffer the changes are encoded through.
+    private final double[] local;
+    private final double[] base;
+    private final double[] change;
+    private final ByteBuffer buffer;
+    // The examples trained on since the last round.
+    private int pendingExamples;
+    private int pendingSteps;
+    private long rounds;
+
+    /**
+     * Connects to the coordinator and receives the network to train.
+     * @param host The host the coordinator runs on.
+     * @param port The port the coordinator listens on.
+     * @throws IOException Thrown if the coordinator cannot be connected to, or sends something unexpected.
+     */
+    public AveragingWorker(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        out.writeInt(AveragingCoordinator.MAGIC);
+        out.flush();
+
+        try {
+            index = in.readInt();
+            workers = in.readInt();
+            syncSteps = in.readInt();
+            encoding = in.readInt();
+            if (encoding != AveragingCoordinator.DOUBLE && encoding != AveragingCoordinator.FLOAT) {
+                throw new IOException("Error: Unknown encoding " + encoding + " from the coordinator");
+            }
+            double learningRate = in.readDouble();
+            int layers = in.readInt();
+            if (layers < 2) {
+                throw new IOException("Error: Expected at least 2 layers from the coordinator, got " + layers);
+            }
+            Layer[] network = new Layer[layers];
+            // The number of weights and biases, which must fit the buffer they are encoded through.
+            long parameters = 0;
+            for (int layer = 0; layer < layers; layer++) {
+                int size = in.readInt();
+                int activationFunction = in.readInt();
+                int inputs = layer == 0 ? 0 : network[layer - 1].size;
+                parameters += layer == 0 ? 0 : (long) size * (inputs + 1);
+                if (size < 1 || 8 * parameters > Integer.MAX_VALUE) {
+                    throw new IOException("Error: Invalid size " + size + " of layer " + layer +
+                            " from the coordinator");
+                }
+                if (activationFunction < 1 || activationFunction > 3) {
+                    throw new IOException("Error: Invalid activation function " + activationFunction +
+                            " of layer " + layer + " from the coordinator");
+                }
+                network[layer] = new Layer(size, inputs, activationFunction, learningRate);
+            }
+            this.network = new NeuralNetwork(network, learningRate);
+            int count = (int) parameters;
+            local = new double[count];
+            base = new double[count];
+            change = new double[count];
+            buffer = ByteBuffer.allocate(count * 8);
+            AveragingCoordinator.read(in, AveragingCoordinator.DOUBLE, buffer, base);
+            AveragingCoordinator.unflatten(base, network);
+            shared = new NeuralNetwork(this.network);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Trains on the worker's shard for the given epochs, in mini-batches of the given size, taking part in a round
+     * every few mini-batches as the coordinator set, and then tells the coordinator it has finished. The network ends
+     * up with the weights shared by every worker as of the last round.
+     * @param inputs         The worker's inputs, each of equal size to the input layer.
+     * @param expectedOutput The values which are expected from the neural network for each input.
+     * @param epochs         The number of passes over the shard.
+     * @param batchSize      The number of examples in each mini-batch.
+     * @throws IOException Thrown if the connection to the coordinator fails.
+     */
+    public void train(double[][] inputs, double[][] expectedOutput, int epochs, int batchSize) throws IOException {
+        network.checkBatch(inputs, expectedOutput);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Error: Expected a batch size of at least 1, got " + batchSize);
+        }
+        // Cut the shard into its mini-batches once, sharing the rows.
+        int batches = (inputs.length + batchSize - 1) / batchSize;
+        double[][][] batchInputs = new double[batches][][];
+        double[][][] batchOutputs = new double[batches][][];
+        for (int batch = 0; batch < batches; batch++) {
+            int from = batch * batchSize;
+            int to = Math.min(from + batchSize, inputs.length);
+            batchInputs[batch] = Arrays.copyOfRange(inputs, from, to);
+            batchOutputs[batch] = Arrays.copyOfRange(expectedOutput, from, to);
+        }
+
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            for (int batch = 0; batch < batches; batch++) {
+                network.trainBatch(batchInputs[batch], batchOutputs[batch]);
+                pendingExamples += batchInputs[batch].length;
+                if (++pendingSteps == syncSteps)
+                    synchronize();
+            }
+        }
+        if (pendingSteps > 0)
+            synchronize();
+        out.writeInt(-1);
+        out.flush();
+    }
+
+    /**
+     * Sends the change made to the weights since the last round, and replaces them with the shared weights plus the
+     * average change of every worker.
+     * @throws IOException Thrown if the connection to the coordinator fails.
+     */
+    public void synchronize() throws IOException {
+        AveragingCoordinator.flatten(network.network, local);
+        for (int i = 0; i < local.length; i++) {
+            change[i] = local[i] - base[i];
+        }
+        AveragingCoordinator.encode(change, encoding, buffer);
+        out.writeInt(pendingExamples);
+        out.write(buffer.array(), 0, buffer.limit());
+        out.flush();
+
+        int active = in.readInt();
+        if (active < 1) {
+            throw new IOException("Error: Expected at least 1 worker still training, got " + active);
+        }
+        AveragingCoordinator.read(in, encoding, buffer, change);
+        for (int i = 0; i < base.length; i++) {
+            base[i] += change[i];
+        }
+        AveragingCoordinator.unflatten(base, shared.network);
+        network.copyWeightFrom(shared);
+        pendingExamples = 0;
+        pendingSteps = 0;
+        rounds++;
+    }
+
+    /**
+     * @return The network trained by this worker.
+     */
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * @return The index of this worker, from 0 in the order the workers connected.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The number of workers training together.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return The number of rounds taken part in so far.
+     */
+    public long getRounds() {
+        return rounds;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Trains on this worker's shard of a synthetic dataset, which every process generates alike from the seed: random
+     * inputs labelled by a random teacher network of the same shape as the one being trained.
+     * <pre>
+     * java AveragingWorker &lt;host&gt; &lt;port&gt; [examples] [epochs] [batch size] [seed]
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java AveragingWorker <host> <port> [examples] [epochs] [batch size] [seed]");
+            System.exit(1);
+        }
+        int examples = args.length > 2 ? Integer.parseInt(args[2]) : 65536;
+        int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+        try (AveragingWorker worker = new AveragingWorker(args[0], Integer.parseInt(args[1]))) {
+            double[][][] data = dataset(worker.network, examples, seed);
+            // Each worker takes an equal contiguous share of the examples.
+            int from = (int) ((long) examples * worker.index / worker.workers);
+            int to = (int) ((long) examples * (worker.index + 1) / worker.workers);
+            long start = System.nanoTime();
+            worker.train(Arrays.copyOfRange(data[0], from, to), Arrays.copyOfRange(data[1], from, to), epochs,
+                    batchSize);
+            System.out.printf("Worker %d: %d examples | %d rounds | %.1f ms%n", worker.index, to - from,
+                    worker.rounds, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    /**
+     * Generates a synthetic dataset for a network's shape: uniform random inputs, labelled with the outputs of a
+     * teacher network of the same shape with weights drawn from the seed.
+     * @return The inputs and the expected outputs.
+     */
+    static double[][][] dataset(NeuralNetwork shape, int examples, long seed) {
+        Random random = new Random(seed);
+        NeuralNetwork teacher = new NeuralNetwork(shape);
+        for (int layer = 1; layer < teacher.layers; layer++) {
+            teacher.network[layer].initialize(random);
+        }
+        double[][] inputs = NetworkBenchmark.random(random, examples, shape.network[0].size);
+        double[][] expectedOutputs = new double[examples][shape.network[shape.layers - 1].size];
+        for (int i = 0; i < examples; i++) {
+            teacher.predict(inputs[i], expectedOutputs[i]);
+        }
+        return new double[][][] {inputs, expectedOutputs};
+    }
+}
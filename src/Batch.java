@@ -0,0 +1,25 @@
+/**
+ * A batch of examples decoded by a DatasetLoader. The arrays are reused for later batches once the batch is released,
+ * so copy anything that must outlive the call to DatasetLoader.release().
+ */
+public class Batch {
+    // The inputs of each example, exactly one row per example in the batch.
+    public double[][] inputs;
+    // The expected outputs of each example, exactly one row per example in the batch.
+    public double[][] expectedOutputs;
+
+    /**
+     * @param size    The number of examples in the batch.
+     * @param inputs  The number of inputs of each example.
+     * @param outputs The number of expected outputs of each example.
+     */
+    public Batch(int size, int inputs, int outputs) {
+        this.inputs = new double[size][inputs];
+        this.expectedOutputs = new double[size][outputs];
+    }
+
+    /**
+     * @return The number of examples in the batch.
+     */
+    public int size() {return inputs.length;}
+}
@@ -0,0 +1,46 @@
+/**
+ * The per-sample state of a batch pushed through a NeuralNetwork. Each array holds one row per sample, row-major
+ * [capacity][layer size], so a whole layer of the batch can be computed as a single matrix product.
+ */
+public class BatchWorkspace {
+    // The largest number of samples this workspace can hold.
+    public final int capacity;
+    // The values of each layer, one row per sample.
+    public final double[][] values;
+    // The derivatives of each layer, one row per sample.
+    public final double[][] derivatives;
+    // The errors of each layer, one row per sample.
+    public final double[][] errors;
+
+    /**
+     * @param network  The layers of the network this workspace is used with.
+     * @param capacity The largest number of samples per batch.
+     */
+    public BatchWorkspace(Layer[] network, int capacity) {
+        this.capacity = capacity;
+        values = new double[network.length][];
+        derivatives = new double[network.length][];
+        errors = new double[network.length][];
+        for (int layer = 0; layer < network.length; layer++) {
+            values[layer] = new double[capacity * network[layer].size];
+            derivatives[layer] = new double[capacity * network[layer].size];
+            errors[layer] = new double[capacity * network[layer].size];
+        }
+    }
+
+    /**
+     * Checks whether this workspace can hold a batch for the given network.
+     * @param network The layers the batch will be pushed through.
+     * @param count   The number of samples in the batch.
+     * @return True if the workspace is large enough and matches the network's shape.
+     */
+    public boolean fits(Layer[] network, int count) {
+        if (count > capacity || values.length != network.length)
+            return false;
+        for (int layer = 0; layer < network.length; layer++) {
+            if (values[layer].length != capacity * network[layer].size)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Dataset read from a packed binary file. Every value is little-endian, and the examples are streamed through a
+ * fixed buffer and bulk copied out of it, with no parsing.
+ * <pre>
+ * int    magic    'MLJD'
+ * int    version  1
+ * int    inputs
+ * int    outputs
+ * long   examples
+ * examples * (double[inputs] input, double[outputs] expected output)
+ * </pre>
+ */
+public class BinaryDataset implements Dataset {
+    public static final int MAGIC = 0x444A4C4D;
+    public static final int VERSION = 1;
+    private static final int HEADER = 24;
+    // The size of the buffer the file is read through.
+    private static final int BUFFER = 1 << 16;
+
+    private final Path path;
+    private final int inputs;
+    private final int outputs;
+    private final long examples;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final DoubleBuffer doubles;
+    private long read;
+
+    /**
+     * @param path         The packed file to be read from.
+     * @throws IOException Thrown if the file cannot be opened or is not a packed dataset.
+     */
+    public BinaryDataset(Path path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header) > 0) {}
+        header.flip();
+        if (header.remaining() < HEADER || header.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Error: " + path + " is not a packed dataset");
+        }
+        if (header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Error: Unsupported dataset version " + header.getInt(4) + " in " + path);
+        }
+        inputs = header.getInt(8);
+        outputs = header.getInt(12);
+        examples = header.getLong(16);
+        if (inputs < 1 || outputs < 0 || examples < 0 || 8L * ((long) inputs + outputs) > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Error: Invalid dataset shape " + inputs + " x " + outputs + " x " + examples +
+                    " in " + path);
+        }
+
+        // Size the buffer to a whole number of examples so none is split across two reads.
+        int example = 8 * (inputs + outputs);
+        buffer = ByteBuffer.allocateDirect(Math.max(1, BUFFER / example) * example).order(ByteOrder.LITTLE_ENDIAN);
+        doubles = buffer.asDoubleBuffer();
+        reset();
+    }
+
+    @Override
+    public int inputs() {return inputs;}
+
+    @Override
+    public int outputs() {return outputs;}
+
+    /**
+     * @return The number of examples in the file.
+     */
+    public long examples() {return examples;}
+
+    @Override
+    public boolean next(double[] input, double[] expectedOutput) throws IOException {
+        if (read == examples)
+            return false;
+        if (!doubles.hasRemaining()) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {}
+            if (buffer.position() % (8 * (inputs + outputs)) != 0) {
+                throw new IOException("Error: Truncated dataset " + path);
+            }
+            doubles.clear().limit(buffer.position() / 8);
+            if (!doubles.hasRemaining()) {
+                throw new IOException("Error: Truncated dataset " + path);
+            }
+        }
+        doubles.get(input, 0, inputs);
+        doubles.get(expectedOutput, 0, outputs);
+        read++;
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        channel.position(HEADER);
+        doubles.clear().limit(0);
+        read = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Packs every example of a dataset into a binary file, e.g. to convert a CSV file once before training on it many
+     * times.
+     * @param dataset      The dataset to be read from, starting at its current example.
+     * @param path         The file to be written to.
+     * @throws IOException Thrown if either file cannot be accessed.
+     */
+    public static void write(Dataset dataset, Path path) throws IOException {
+        int inputs = dataset.inputs();
+        int outputs = dataset.outputs();
+        double[] input = new double[inputs];
+        double[] expectedOutput = new double[outputs];
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int example = 8 * (inputs + outputs);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, BUFFER / example) * example)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            out.position(HEADER);
+            long examples = 0;
+            while (dataset.next(input, expectedOutput)) {
+                if (doubles.remaining() < inputs + outputs) {
+                    flush(out, buffer, doubles);
+                }
+                doubles.put(input).put(expectedOutput);
+                examples++;
+            }
+            flush(out, buffer, doubles);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(inputs).putInt(outputs).putLong(examples).flip();
+            out.position(0);
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+        }
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buffer, DoubleBuffer doubles) throws IOException {
+        buffer.clear().limit(doubles.position() * 8);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        doubles.clear();
+    }
+}
@@ -0,0 +1,489 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Writes checkpoints of a network while it trains, without holding up training for the write. checkpoint() only
+ * copies the weights, biases, masks and optimizer state into a preallocated snapshot, and a background thread writes
+ * the snapshot to a temporary file, forces it to disk and atomically renames it into place, so a crash never leaves a
+ * partly written checkpoint under a checkpoint's name. Only the newest checkpoints are kept.
+ * <pre>
+ * try (Checkpointer checkpointer = new Checkpointer(nn, Path.of("checkpoints"), 3)) {
+ *     long step = checkpointer.resume() + 1;
+ *     for (; step &lt; steps; step++) {
+ *         nn.trainBatch(inputs, expectedOutputs);
+ *         if (step % 1000 == 0)
+ *             checkpointer.checkpoint(step);
+ *     }
+ * }
+ * </pre>
+ * Each checkpoint is a binary model file, so ModelFile.load() can read it directly, followed by the optimizer's state
+ * and a footer holding the step and a CRC32 of the whole file:
+ * <pre>
+ * model file        see ModelFile
+ * int    slots      0 if the network has no optimizer
+ * int    layers     the number of layers with optimizer state
+ * int    nameLength
+ * int    reserved   0
+ * byte[nameLength]  the optimizer's class name, padded to 8 bytes
+ * layers * (long steps, int weights, int biases, double[slots * weights], double[slots * biases])
+ * long   step
+ * long   stateOffset  the position of the optimizer's state
+ * int    magic        'MLJC'
+ * int    reserved     0
+ * long   checksum     CRC32 of every byte before it
+ * </pre>
+ */
+public class Checkpointer implements AutoCloseable {
+    public static final int MAGIC = 0x434A4C4D;
+    // The size of the footer ending every checkpoint.
+    private static final int FOOTER = 32;
+    // The number of snapshots, so one can be copied while the other is written.
+    private static final int SNAPSHOTS = 2;
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".bin";
+    // Appended to the name of a checkpoint found damaged by resume().
+    private static final String CORRUPT = ".corrupt";
+    // Marks the end of the queue of snapshots to be written.
+    private static final Snapshot END = new Snapshot();
+
+    private final NeuralNetwork network;
+    private final Path directory;
+    private final int keep;
+    private final BlockingQueue<Snapshot> pending;
+    private final BlockingQueue<Snapshot> free;
+    private final Thread thread;
+    private volatile Throwable failure;
+    private volatile long written;
+    private long skipped;
+    private boolean closed;
+
+    /**
+     * Starts the background writer, creating the directory if needed and deleting any temporary files left behind by
+     * a crash.
+     * @param network   The network to checkpoint.
+     * @param directory The directory the checkpoints are written to.
+     * @param keep      The number of the newest checkpoints to keep.
+     * @throws IOException Thrown if the directory cannot be created or read.
+     */
+    public Checkpointer(NeuralNetwork network, Path directory, int keep) throws IOException {
+        if (keep < 1) {
+            throw new IllegalArgumentException("Error: Expected to keep at least 1 checkpoint, got " + keep);
+        }
+        this.network = network;
+        this.directory = directory;
+        this.keep = keep;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX + ".tmp")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        pending = new ArrayBlockingQueue<>(SNAPSHOTS + 1);
+        free = new ArrayBlockingQueue<>(SNAPSHOTS);
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            free.add(new Snapshot());
+        }
+        thread = new Thread(this::write, "Checkpointer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copies the network's current state and queues it to be written in the background. This only takes as long as
+     * copying the network's arrays; if both snapshots are still waiting to be written, the checkpoint is skipped
+     * rather than waiting for them.
+     * @param step The training step the checkpoint is taken at, which resume() returns. Steps should only increase.
+     * @return True if the checkpoint was queued, or false if it was skipped.
+     * @throws IOException Thrown if an earlier checkpoint could not be written.
+     */
+    public boolean checkpoint(long step) throws IOException {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("Error: The checkpointer is closed");
+        }
+        if (step < 0) {
+            throw new IllegalArgumentException("Error: Expected a step of at least 0, got " + step);
+        }
+        Snapshot snapshot = free.poll();
+        if (snapshot == null) {
+            skipped++;
+            return false;
+        }
+        snapshot.copy(network, step);
+        pending.add(snapshot);
+        return true;
+    }
+
+    /**
+     * Restores the network, and its optimizer's state, from the newest checkpoint that is intact. Checkpoints that
+     * are truncated or fail their checksum are passed over and renamed with a ".corrupt" suffix, so they are kept for
+     * inspection but can no longer outrank the checkpoints written after resuming, which would otherwise be deleted
+     * first to keep only the newest.
+     * @return The step of the restored checkpoint, or -1 if there is none and the network was left as it was.
+     * @throws IOException Thrown if the directory cannot be read, or the newest intact checkpoint does not fit the
+     *                     network.
+     */
+    public long resume() throws IOException {
+        List<Path> checkpoints = list();
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            Path path = checkpoints.get(i);
+            MappedByteBuffer buffer;
+            try {
+                buffer = ModelFile.map(path);
+            } catch (IOException e) {
+                quarantine(path);
+                continue;
+            }
+            if (!intact(buffer)) {
+                quarantine(path);
+                continue;
+            }
+            int footer = buffer.capacity() - FOOTER;
+            long step = buffer.getLong(footer);
+            int stateOffset = (int) buffer.getLong(footer + 8);
+
+            Optimizer.State state = readState(buffer, stateOffset, path);
+            network.loadBinary(path.toString());
+            Optimizer optimizer = network.getOptimizer();
+            if (optimizer != null && state != null) {
+                String name = stateName(buffer, stateOffset);
+                if (!name.equals(optimizer.getClass().getName())) {
+                    throw new IOException("Error: " + path + " holds the state of a " + name + ", not a " +
+                            optimizer.getClass().getName());
+                }
+                try {
+                    optimizer.restoreState(state);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Error: " + path + " does not fit the network's optimizer", e);
+                }
+            }
+            return step;
+        }
+        return -1;
+    }
+
+    /**
+     * Renames a damaged checkpoint out of the way of list(), replacing any earlier copy.
+     */
+    private void quarantine(Path path) throws IOException {
+        Files.move(path, path.resolveSibling(path.getFileName() + CORRUPT), StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    /**
+     * @return The newest intact checkpoint in the directory, or null if there is none.
+     * @throws IOException Thrown if the directory cannot be read.
+     */
+    public Path latest() throws IOException {
+        List<Path> checkpoints = list();
+        for (int i = checkpoints.size() - 1; i >= 0; i--) {
+            try {
+                if (intact(ModelFile.map(checkpoints.get(i))))
+                    return checkpoints.get(i);
+            } catch (IOException e) {
+                // Unreadable, so try the one before.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of checkpoints written so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return The number of checkpoints skipped because both snapshots were still waiting to be written.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Waits for every queued checkpoint to be written, and stops the background thread.
+     * @throws IOException Thrown if a checkpoint could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pending.add(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Error: Interrupted while waiting for checkpoints to be written", e);
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable failure = this.failure;
+        if (failure != null)
+            throw failure instanceof IOException cause ? cause : new IOException(failure);
+    }
+
+    /**
+     * The background thread, which writes each queued snapshot until the checkpointer is closed or a write fails.
+     */
+    private void write() {
+        try {
+            Snapshot snapshot;
+            while ((snapshot = pending.take()) != END) {
+                write(snapshot);
+                written++;
+                free.add(snapshot);
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, forces it to disk and renames it into place, and then deletes all but
+     * the newest checkpoints.
+     */
+    private void write(Snapshot snapshot) throws IOException {
+        Path file = directory.resolve(name(snapshot.step));
+        Path temporary = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ModelFile.write(channel, snapshot.sizes, snapshot.activationFunctions, snapshot.weights, snapshot.biases,
+                    snapshot.masks, snapshot.learningRate);
+            long stateOffset = channel.position();
+            writeState(channel, snapshot);
+
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER).order(ByteOrder.LITTLE_ENDIAN);
+            footer.putLong(snapshot.step).putLong(stateOffset).putInt(MAGIC).putInt(0).flip().limit(FOOTER - 8);
+            ModelFile.writeFully(channel, footer);
+            CRC32 checksum = new CRC32();
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.position()));
+            footer.clear().position(FOOTER - 8);
+            footer.putLong(checksum.getValue()).position(FOOTER - 8);
+            ModelFile.writeFully(channel, footer);
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+
+        List<Path> checkpoints = list();
+        for (int i = 0; i < checkpoints.size() - keep; i++) {
+            Files.deleteIfExists(checkpoints.get(i));
+        }
+    }
+
+    /**
+     * Writes the optimizer's state block of a snapshot.
+     */
+    private static void writeState(FileChannel channel, Snapshot snapshot) throws IOException {
+        Optimizer.State state = snapshot.state;
+        int layers = snapshot.slots == 0 ? 0 : state.steps.length;
+        byte[] name = snapshot.optimizer.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(16 + padded(name.length)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(snapshot.slots).putInt(layers).putInt(name.length).putInt(0).put(name).clear();
+        ModelFile.writeFully(channel, header);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer entry = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int layer = 0; layer < layers; layer++) {
+            double[][] weights = state.weights[layer];
+            double[][] biases = state.biases[layer];
+            entry.clear();
+            entry.putLong(state.steps[layer]).putInt(weights == null ? 0 : weights[0].length)
+                    .putInt(biases == null ? 0 : biases[0].length).flip();
+            ModelFile.writeFully(channel, entry);
+            if (weights == null)
+                continue;
+            for (double[] slot : weights) {
+                ModelFile.writeDoubles(channel, buffer, slot, slot.length);
+            }
+            for (double[] slot : biases) {
+                ModelFile.writeDoubles(channel, buffer, slot, slot.length);
+            }
+        }
+    }
+
+    /**
+     * Reads the optimizer's state block of a mapped checkpoint.
+     * @return The state, or null if the network had no optimizer.
+     */
+    private static Optimizer.State readState(ByteBuffer buffer, int position, Path path) throws IOException {
+        int slots = buffer.getInt(position);
+        int layers = buffer.getInt(position + 4);
+        if (slots == 0)
+            return null;
+        position += 16 + padded(buffer.getInt(position + 8));
+        Optimizer.State state = new Optimizer.State();
+        state.steps = new long[layers];
+        state.weights = new double[layers][][];
+        state.biases = new double[layers][][];
+        for (int layer = 0; layer < layers; layer++) {
+            state.steps[layer] = buffer.getLong(position);
+            int weights = buffer.getInt(position + 8);
+            int biases = buffer.getInt(position + 12);
+            position += 16;
+            if (weights == 0 && biases == 0)
+                continue;
+            if ((long) position + 8L * slots * ((long) weights + biases) > buffer.capacity() - FOOTER) {
+                throw new IOException("Error: Truncated optimizer state in " + path);
+            }
+            state.weights[layer] = new double[slots][weights];
+            state.biases[layer] = new double[slots][biases];
+            for (double[] slot : state.weights[layer]) {
+                buffer.slice(position, 8 * weights).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(slot);
+                position += 8 * weights;
+            }
+            for (double[] slot : state.biases[layer]) {
+                buffer.slice(position, 8 * biases).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(slot);
+                position += 8 * biases;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return The optimizer class name stored in the state block of a mapped checkpoint.
+     */
+    private static String stateName(ByteBuffer buffer, int position) {
+        byte[] name = new byte[buffer.getInt(position + 8)];
+        buffer.get(position + 16, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return True if the mapped file ends with a checkpoint footer whose checksum matches.
+     */
+    private static boolean intact(ByteBuffer buffer) {
+        int footer = buffer.capacity() - FOOTER;
+        if (footer < 0 || buffer.getInt(footer + 16) != MAGIC)
+            return false;
+        long stateOffset = buffer.getLong(footer + 8);
+        if (stateOffset < 0 || stateOffset + 16 > footer)
+            return false;
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.slice(0, buffer.capacity() - 8));
+        return checksum.getValue() == buffer.getLong(buffer.capacity() - 8);
+    }
+
+    /**
+     * @return Every checkpoint in the directory, oldest first.
+     */
+    private List<Path> list() throws IOException {
+        List<Path> checkpoints = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                checkpoints.add(file);
+            }
+        }
+        // The steps are zero-padded, so the names sort in the order of their steps.
+        Collections.sort(checkpoints);
+        return checkpoints;
+    }
+
+    /**
+     * Forces the directory's entries to disk, so the rename survives a crash. Not every platform allows this, in
+     * which case the rename is left to the file system.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened as channels on this platform.
+        }
+    }
+
+    private static String name(long step) {
+        return String.format("%s%019d%s", PREFIX, step, SUFFIX);
+    }
+
+    private static int padded(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * A copy of the network's state, whose arrays are reused by every checkpoint it is taken for. Only what a
+     * checkpoint holds is copied, so none of the layers' activations or gradients are duplicated.
+     */
+    private static class Snapshot {
+        int[] sizes = new int[0];
+        int[] activationFunctions = new int[0];
+        // The weights, biases and masks of each layer, with a null mask for layers that have not been pruned.
+        double[][] weights = new double[0][];
+        double[][] biases = new double[0][];
+        boolean[][] masks = new boolean[0][];
+        double learningRate;
+        long step;
+        // The optimizer's state and class name, and its number of state arrays, or 0 if the network has none.
+        final Optimizer.State state = new Optimizer.State();
+        String optimizer = "";
+        int slots;
+
+        /**
+         * Copies the network's weights, biases, masks and optimizer state into this snapshot.
+         */
+        void copy(NeuralNetwork network, long step) {
+            Layer[] source = network.network;
+            if (!fits(source)) {
+                sizes = new int[source.length];
+                activationFunctions = new int[source.length];
+                weights = new double[source.length][];
+                biases = new double[source.length][];
+                masks = new boolean[source.length][];
+                for (int i = 0; i < source.length; i++) {
+                    sizes[i] = source[i].size;
+                    weights[i] = new double[source[i].weights.length];
+                    biases[i] = new double[source[i].size];
+                }
+            }
+            for (int i = 0; i < source.length; i++) {
+                Layer from = source[i];
+                System.arraycopy(from.weights, 0, weights[i], 0, from.weights.length);
+                System.arraycopy(from.biases, 0, biases[i], 0, from.size);
+                activationFunctions[i] = from.activationFunction;
+                if (from.mask == null)
+                    masks[i] = null;
+                else if (masks[i] == null)
+                    masks[i] = from.mask.clone();
+                else
+                    System.arraycopy(from.mask, 0, masks[i], 0, from.mask.length);
+            }
+            learningRate = network.learningRate;
+            this.step = step;
+
+            Optimizer optimizer = network.getOptimizer();
+            slots = optimizer == null ? 0 : optimizer.slots();
+            if (optimizer != null) {
+                optimizer.saveState(state);
+                this.optimizer = optimizer.getClass().getName();
+            }
+        }
+
+        private boolean fits(Layer[] source) {
+            if (sizes.length != source.length)
+                return false;
+            for (int i = 0; i < source.length; i++) {
+                if (sizes[i] != source[i].size || weights[i].length != source[i].weights.length)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * A network compiled by NetworkCompiler into a class of its own, with every weight and bias folded into its code.
+ * Instances hold no mutable state, so any number of threads may predict at once.
+ */
+public interface CompiledNetwork {
+    /**
+     * Calculates the outputs of the network for the given inputs.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IllegalArgumentException Ensure that both arrays are equal in length to their layers.
+     */
+    void predict(double[] inputs, double[] outputs);
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Dataset read from a CSV file, one example per line with the inputs followed by the expected outputs. The file is
+ * streamed through a fixed buffer, so only the current line is ever held in memory.
+ */
+public class CsvDataset implements Dataset {
+    // The size of the buffer the file is read through.
+    private static final int BUFFER = 1 << 16;
+
+    private final Path path;
+    private final int inputs;
+    private final int outputs;
+    private final boolean header;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+    private final StringBuilder field = new StringBuilder();
+    private long line;
+    // Whether the last line ended in a '\r', so a '\n' straight after it ends the same line rather than a blank one.
+    private boolean carriageReturn;
+
+    /**
+     * @param path         The CSV file to be read from.
+     * @param inputs       The number of inputs of each example.
+     * @param outputs      The number of expected outputs of each example.
+     * @param header       Whether the first line is a header to be skipped.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public CsvDataset(Path path, int inputs, int outputs, boolean header) throws IOException {
+        this.path = path;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.header = header;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        reset();
+    }
+
+    @Override
+    public int inputs() {return inputs;}
+
+    @Override
+    public int outputs() {return outputs;}
+
+    @Override
+    public boolean next(double[] input, double[] expectedOutput) throws IOException {
+        int column = 0;
+        int b;
+        // Skip any blank lines before the example.
+        while ((b = read()) == '\n' || b == '\r') {
+            if (b == '\r' || !carriageReturn)
+                line++;
+            carriageReturn = b == '\r';
+        }
+        carriageReturn = false;
+        if (b == -1)
+            return false;
+        line++;
+
+        field.setLength(0);
+        while (true) {
+            if (b == ',' || b == '\n' || b == '\r' || b == -1) {
+                if (column < inputs) {
+                    input[column] = parse(column);
+                } else if (column < inputs + outputs) {
+                    expectedOutput[column - inputs] = parse(column);
+                }
+                column++;
+                field.setLength(0);
+                if (b != ',') {
+                    carriageReturn = b == '\r';
+                    break;
+                }
+            } else if (b != ' ') {
+                field.append((char) b);
+            }
+            b = read();
+        }
+        if (column != inputs + outputs) {
+            throw new IOException("Error: Expected " + (inputs + outputs) + " columns on line " + line + " of " +
+                    path + ", got " + column);
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        channel.position(0);
+        buffer.clear().flip();
+        line = 0;
+        carriageReturn = false;
+        if (header) {
+            int b;
+            while ((b = read()) != '\n' && b != -1) {}
+            line++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private double parse(int column) throws IOException {
+        try {
+            return Double.parseDouble(field.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException("Error: Cannot parse column " + column + " on line " + line + " of " + path +
+                    ": \"" + field + "\"");
+        }
+    }
+
+    /**
+     * @return The next byte of the file, or -1 at the end of it.
+     */
+    private int read() throws IOException {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            if (channel.read(buffer) <= 0) {
+                buffer.flip();
+                return -1;
+            }
+            buffer.flip();
+        }
+        return buffer.get() & 0xFF;
+    }
+}
@@ -0,0 +1,35 @@
+import java.io.IOException;
+
+/**
+ * A source of training examples that is read one example at a time, so it never needs to fit in memory. Use a
+ * DatasetLoader to decode a Dataset on a background thread into batches for trainBatch().
+ */
+public interface Dataset extends AutoCloseable {
+    /**
+     * @return The number of inputs of each example.
+     */
+    int inputs();
+
+    /**
+     * @return The number of expected outputs of each example.
+     */
+    int outputs();
+
+    /**
+     * Reads the next example into the given arrays.
+     * @param input          The array to store the example's inputs into.
+     * @param expectedOutput The array to store the example's expected outputs into.
+     * @return False if there are no more examples, in which case neither array is changed.
+     * @throws IOException   Thrown if the example cannot be read.
+     */
+    boolean next(double[] input, double[] expectedOutput) throws IOException;
+
+    /**
+     * Rewinds the dataset to its first example, ready for another epoch.
+     * @throws IOException Thrown if the dataset cannot be rewound.
+     */
+    void reset() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads one epoch of a Dataset on a background thread and decodes it into batches, so reading the next batches
+ * overlaps with training on the current one. At most <code>prefetch</code> decoded batches wait in a bounded queue,
+ * and batches are recycled through release() rather than reallocated. Examples can optionally be shuffled within a
+ * sliding window, which mixes neighbouring examples without holding the whole dataset in memory.
+ * <pre>
+ * try (DatasetLoader loader = new DatasetLoader(dataset, 64, 4, 4096, seed)) {
+ *     Batch batch;
+ *     while ((batch = loader.take()) != null) {
+ *         nn.trainBatch(batch.inputs, batch.expectedOutputs);
+ *         loader.release(batch);
+ *     }
+ * }
+ * </pre>
+ */
+public class DatasetLoader implements AutoCloseable {
+    // Marks the end of the epoch in the queue of decoded batches.
+    private static final Batch END = new Batch(0, 0, 0);
+
+    private final Dataset dataset;
+    private final int batchSize;
+    private final int window;
+    private final Random random;
+    private final BlockingQueue<Batch> decoded;
+    private final BlockingQueue<Batch> free;
+    private final Thread thread;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private boolean finished;
+
+    /**
+     * Starts reading the dataset from its current example.
+     * @param dataset   The dataset to be read from.
+     * @param batchSize The number of examples in each batch. Only the last batch of the epoch may be smaller.
+     * @param prefetch  The number of decoded batches that may wait to be taken.
+     * @param window    The number of examples shuffled together, or 0 to keep the dataset's order.
+     * @param seed      The seed used to shuffle.
+     */
+    public DatasetLoader(Dataset dataset, int batchSize, int prefetch, int window, long seed) {
+        if (batchSize < 1 || prefetch < 1) {
+            throw new IllegalArgumentException("Error: Expected a positive batch size and prefetch, got " +
+                    batchSize + " and " + prefetch);
+        }
+        if (window < 0) {
+            throw new IllegalArgumentException("Error: Expected a shuffle window of at least 0, got " + window);
+        }
+        this.dataset = dataset;
+        this.batchSize = batchSize;
+        this.window = window;
+        random = new Random(seed);
+        decoded = new ArrayBlockingQueue<>(prefetch);
+        // Two more batches than can be queued, so the reader can fill one while the trainer holds another.
+        free = new ArrayBlockingQueue<>(prefetch + 2);
+        for (int i = 0; i < prefetch + 2; i++) {
+            free.add(new Batch(batchSize, dataset.inputs(), dataset.outputs()));
+        }
+        thread = new Thread(this::read, "DatasetLoader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the next decoded batch.
+     * @return The next batch, or null at the end of the epoch or once the loader is closed.
+     * @throws IOException Thrown if the dataset could not be read.
+     */
+    public Batch take() throws IOException {
+        if (finished || closed)
+            return null;
+        Batch batch;
+        try {
+            batch = decoded.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Error: Interrupted while waiting for a batch", e);
+        }
+        if (batch == END) {
+            finished = true;
+            if (failure != null) {
+                throw failure instanceof IOException cause ? cause : new IOException(failure);
+            }
+            return null;
+        }
+        return batch;
+    }
+
+    /**
+     * Hands a batch back so its arrays can be reused for a later batch.
+     * @param batch The batch returned by take(), which must no longer be used.
+     */
+    public void release(Batch batch) {
+        if (batch.size() == batchSize)
+            free.offer(batch);
+    }
+
+    /**
+     * Stops the background thread once it finishes the batch it is decoding, after which take() returns null. The
+     * dataset itself is left open, so it can be reset for another epoch.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // Unblock the background thread, whether it is waiting to queue a batch or for a free one.
+        decoded.clear();
+        free.offer(new Batch(batchSize, dataset.inputs(), dataset.outputs()));
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // End the epoch for any take() still waiting, in place of whatever the reader queued before it stopped.
+        decoded.clear();
+        decoded.offer(END);
+    }
+
+    /**
+     * The background thread, which decodes the dataset into batches until the end of the epoch.
+     */
+    private void read() {
+        int inputs = dataset.inputs();
+        int outputs = dataset.outputs();
+        try {
+            // Fill the shuffle window.
+            double[][] windowInputs = new double[window][inputs];
+            double[][] windowOutputs = new double[window][outputs];
+            int filled = 0;
+            while (filled < window && dataset.next(windowInputs[filled], windowOutputs[filled])) {
+                filled++;
+            }
+
+            Batch batch = free.take();
+            int count = 0;
+            while (true) {
+                double[] input = batch.inputs[count];
+                double[] expectedOutput = batch.expectedOutputs[count];
+                if (filled < window) {
+                    // The dataset is exhausted, so drain the window in a random order.
+                    if (filled == 0)
+                        break;
+                    int slot = random.nextInt(filled--);
+                    swap(batch, count, windowInputs, windowOutputs, slot);
+                    swap(windowInputs, windowOutputs, slot, filled);
+                } else if (window > 0) {
+                    // Emit a random example from the window and read the next example into its slot.
+                    int slot = random.nextInt(window);
+                    swap(batch, count, windowInputs, windowOutputs, slot);
+                    if (!dataset.next(windowInputs[slot], windowOutputs[slot])) {
+                        filled--;
+                        swap(windowInputs, windowOutputs, slot, filled);
+                    }
+                } else if (!dataset.next(input, expectedOutput)) {
+                    break;
+                }
+
+                if (++count == batchSize) {
+                    decoded.put(batch);
+                    if (closed)
+                        return;
+                    batch = free.take();
+                    count = 0;
+                }
+            }
+
+            if (count > 0) {
+                Batch last = new Batch(0, 0, 0);
+                last.inputs = Arrays.copyOf(batch.inputs, count);
+                last.expectedOutputs = Arrays.copyOf(batch.expectedOutputs, count);
+                // release() drops the smaller copy, so hand the pooled batch back here instead.
+                free.offer(batch);
+                decoded.put(last);
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+        if (closed)
+            return;
+        try {
+            decoded.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Swaps row <code>row</code> of the batch with the given window slot, so no example is ever copied.
+     */
+    private static void swap(Batch batch, int row, double[][] windowInputs, double[][] windowOutputs, int slot) {
+        double[] input = batch.inputs[row];
+        batch.inputs[row] = windowInputs[slot];
+        windowInputs[slot] = input;
+        double[] expectedOutput = batch.expectedOutputs[row];
+        batch.expectedOutputs[row] = windowOutputs[slot];
+        windowOutputs[slot] = expectedOutput;
+    }
+
+    private static void swap(double[][] windowInputs, double[][] windowOutputs, int a, int b) {
+        double[] input = windowInputs[a];
+        windowInputs[a] = windowInputs[b];
+        windowInputs[b] = input;
+        double[] expectedOutput = windowOutputs[a];
+        windowOutputs[a] = windowOutputs[b];
+        windowOutputs[b] = expectedOutput;
+    }
+}
@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Evolves a population of networks by neuroevolution. Two pools of networks shaped like a template are allocated once,
+ * and each generation is bred from the current pool into the other one in place, which then becomes the current
+ * pool. A generation keeps its fittest individuals unchanged, and breeds the rest by tournament selection, crossover
+ * of whole neurons and gaussian mutation of individual weights and biases.
+ * <p>
+ * Fitness is evaluated, and children are bred, across several threads. Each child is bred from its own random stream
+ * seeded by the generation and its index, so a given seed always evolves the same population no matter how many
+ * threads run it, as long as the fitness function is deterministic.
+ */
+public class Evolution implements AutoCloseable {
+    // The number of tasks each generation is split into per thread, so uneven fitness costs are balanced.
+    private static final int TASKS_PER_THREAD = 4;
+    // The multiplier used to spread the generation and child index across each child's seed.
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // The probability of each weight and bias being mutated.
+    public double mutationRate = 0.05;
+    // The standard deviation of each mutation.
+    public double mutationStrength = 0.1;
+    // The probability of a child being bred from two parents, rather than copied from one.
+    public double crossoverRate = 0.7;
+    // The number of the fittest individuals carried into the next generation unchanged.
+    public int elites = 1;
+    // The number of individuals competing in each tournament.
+    public int tournamentSize = 3;
+
+    private final FitnessFunction fitnessFunction;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int tasks;
+    private final long seed;
+    // The current generation, and the pool the next generation is bred into.
+    private NeuralNetwork[] population;
+    private NeuralNetwork[] offspring;
+    // The fitness of each individual of the current generation, and of the pool being bred.
+    private double[] fitness;
+    private double[] offspringFitness;
+    // The indices of the current generation, partially sorted so the fittest come first.
+    private final int[] order;
+    private boolean evaluated;
+    private int generation;
+
+    /**
+     * Creates a population running on its own fork-join pool. Every individual starts with random weights, and may be
+     * overwritten before evolving, e.g. with getIndividual(0).copyWeightFrom(trained).
+     * @param template The network whose shape and activation functions every individual has.
+     * @param size     The number of individuals in the population.
+     * @param fitness  The function scoring each individual.
+     * @param threads  The number of threads to evaluate and breed with.
+     * @param seed     The seed of every random choice made by the evolution.
+     */
+    public Evolution(NeuralNetwork template, int size, FitnessFunction fitness, int threads, long seed) {
+        this(template, size, fitness, new ForkJoinPool(threads), threads * TASKS_PER_THREAD, seed, true);
+    }
+
+    /**
+     * Creates a population running on the given executor, which is left open when the evolution is closed.
+     * @param template The network whose shape and activation functions every individual has.
+     * @param size     The number of individuals in the population.
+     * @param fitness  The function scoring each individual.
+     * @param executor The executor that evaluates and breeds the individuals.
+     * @param tasks    The number of tasks each generation is split into.
+     * @param seed     The seed of every random choice made by the evolution.
+     */
+    public Evolution(NeuralNetwork template, int size, FitnessFunction fitness, ExecutorService executor, int tasks,
+                     long seed) {
+        this(template, size, fitness, executor, tasks, seed, false);
+    }
+
+    private Evolution(NeuralNetwork template, int size, FitnessFunction fitness, ExecutorService executor, int tasks,
+                      long seed, boolean ownsExecutor) {
+        if (size < 2) {
+            throw new IllegalArgumentException("Error: Expected a population of at least 2, got " + size);
+        }
+        if (tasks < 1) {
+            throw new IllegalArgumentException("Error: Expected at least 1 task, got " + tasks);
+        }
+        this.fitnessFunction = fitness;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.tasks = tasks;
+        this.seed = seed;
+        population = new NeuralNetwork[size];
+        offspring = new NeuralNetwork[size];
+        this.fitness = new double[size];
+        offspringFitness = new double[size];
+        order = new int[size];
+
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            population[i] = new NeuralNetwork(template);
+            offspring[i] = new NeuralNetwork(template);
+            for (int layer = 1; layer < template.layers; layer++) {
+                population[i].network[layer].initialize(random);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the fitness of every individual of the current generation, unless it already has been.
+     * @throws Exception Thrown if the fitness function fails.
+     */
+    public void evaluate() throws Exception {
+        if (evaluated)
+            return;
+        evaluate(population, fitness, 0);
+        evaluated = true;
+    }
+
+    /**
+     * Breeds and evaluates the next generation, evaluating the current one first if needed. The elites keep their
+     * fitness rather than being evaluated again.
+     * @return The fitness of the fittest individual of the new generation.
+     * @throws Exception Thrown if the fitness function fails.
+     */
+    public double evolve() throws Exception {
+        evaluate();
+        int size = population.length;
+        int elites = Math.max(0, Math.min(this.elites, size));
+
+        // Carry the fittest individuals over unchanged.
+        rank(elites);
+        for (int i = 0; i < elites; i++) {
+            offspring[i].copyWeightFrom(population[order[i]]);
+            offspringFitness[i] = fitness[order[i]];
+        }
+
+        // Breed and evaluate the rest of the next generation.
+        long generationSeed = (seed * GOLDEN_GAMMA + generation) * GOLDEN_GAMMA;
+        List<Callable<Void>> work = new ArrayList<>(tasks);
+        split(elites, size, work, (from, to) -> {
+            for (int child = from; child < to; child++) {
+                breed(child, new SplittableRandom(generationSeed + child));
+            }
+        });
+        run(work);
+        evaluate(offspring, offspringFitness, elites);
+
+        // Swap the pools, so the old generation's networks are reused by the next.
+        NeuralNetwork[] networks = population;
+        population = offspring;
+        offspring = networks;
+        double[] scores = fitness;
+        fitness = offspringFitness;
+        offspringFitness = scores;
+        generation++;
+        return getBestFitness();
+    }
+
+    /**
+     * Breeds a single child into the offspring pool from the current generation.
+     */
+    private void breed(int index, SplittableRandom random) {
+        NeuralNetwork child = offspring[index];
+        NeuralNetwork first = population[select(random)];
+        if (random.nextDouble() < crossoverRate) {
+            // Take each neuron's weights and bias from either parent.
+            NeuralNetwork second = population[select(random)];
+            for (int layer = 1; layer < child.layers; layer++) {
+                Layer to = child.network[layer];
+                Layer a = first.network[layer];
+                Layer b = second.network[layer];
+                for (int n = 0; n < to.size; n++) {
+                    Layer from = random.nextBoolean() ? a : b;
+                    System.arraycopy(from.weights, n * to.inputs, to.weights, n * to.inputs, to.inputs);
+                    to.biases[n] = from.biases[n];
+                }
+            }
+        } else {
+            child.copyWeightFrom(first);
+        }
+
+        for (int layer = 1; layer < child.layers; layer++) {
+            mutate(child.network[layer].weights, random);
+            mutate(child.network[layer].biases, random);
+            // Keep any pruned weights at zero, as training would.
+            child.network[layer].applyMask();
+        }
+        // Crossover and mutation write the arrays directly, so anything cached from the child's old weights is stale.
+        child.weightsChanged();
+    }
+
+    /**
+     * Adds gaussian noise to each value with a probability of mutationRate. Rather than drawing a number for every
+     * value, the gap to the next mutated value is drawn from a geometric distribution, so only the mutated values cost
+     * anything.
+     */
+    private void mutate(double[] values, SplittableRandom random) {
+        if (mutationRate <= 0)
+            return;
+        double log = Math.log(1.0 - Math.min(mutationRate, 1.0));
+        for (int i = skip(random, log, values.length); i < values.length; i += 1 + skip(random, log, values.length)) {
+            values[i] += random.nextGaussian() * mutationStrength;
+        }
+    }
+
+    /**
+     * @return The number of values to skip before the next mutation, at most <code>limit</code>.
+     */
+    private static int skip(SplittableRandom random, double log, int limit) {
+        return (int) Math.min(limit, Math.floor(Math.log(1.0 - random.nextDouble()) / log));
+    }
+
+    /**
+     * @return The index of the fittest of tournamentSize randomly chosen individuals.
+     */
+    private int select(SplittableRandom random) {
+        int best = random.nextInt(population.length);
+        for (int i = 1; i < tournamentSize; i++) {
+            int challenger = random.nextInt(population.length);
+            if (fitness[challenger] > fitness[best])
+                best = challenger;
+        }
+        return best;
+    }
+
+    /**
+     * Moves the indices of the <code>count</code> fittest individuals to the front of the order, fittest first. Ties
+     * go to the lower index.
+     */
+    private void rank(int count) {
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int best = i;
+            for (int j = i + 1; j < order.length; j++) {
+                if (fitness[order[j]] > fitness[order[best]] ||
+                        fitness[order[j]] == fitness[order[best]] && order[j] < order[best])
+                    best = j;
+            }
+            int swap = order[i];
+            order[i] = order[best];
+            order[best] = swap;
+        }
+    }
+
+    /**
+     * Evaluates <code>networks[from, length)</code> into <code>scores</code> across the executor.
+     */
+    private void evaluate(NeuralNetwork[] networks, double[] scores, int from) throws Exception {
+        List<Callable<Void>> work = new ArrayList<>(tasks);
+        split(from, networks.length, work, (start, end) -> {
+            for (int i = start; i < end; i++) {
+                scores[i] = fitnessFunction.evaluate(networks[i]);
+            }
+        });
+        run(work);
+    }
+
+    /**
+     * A contiguous range of individuals processed by a single task.
+     */
+    private interface Range {
+        void run(int from, int to) throws Exception;
+    }
+
+    /**
+     * Splits <code>[from, to)</code> into at most <code>tasks</code> contiguous ranges and adds a task for each.
+     */
+    private void split(int from, int to, List<Callable<Void>> work, Range range) {
+        int count = to - from;
+        for (int task = 0; task < tasks; task++) {
+            int start = from + (int) ((long) count * task / tasks);
+            int end = from + (int) ((long) count * (task + 1) / tasks);
+            if (start == end)
+                continue;
+            work.add(() -> {
+                range.run(start, end);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Runs every task on the executor and waits for all of them, rethrowing the first failure.
+     */
+    private void run(List<Callable<Void>> work) throws Exception {
+        List<Future<Void>> futures = executor.invokeAll(work);
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause)
+                    throw cause;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return The number of generations bred so far.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The number of individuals in the population.
+     */
+    public int size() {
+        return population.length;
+    }
+
+    /**
+     * @param index The index of the individual.
+     * @return The individual of the current generation. Its network is reused by later generations, so copy it to
+     *         keep it.
+     */
+    public NeuralNetwork getIndividual(int index) {
+        return population[index];
+    }
+
+    /**
+     * @param index The index of the individual.
+     * @return The fitness of the individual of the current generation.
+     * @throws IllegalStateException Thrown if the current generation has not been evaluated.
+     */
+    public double getFitness(int index) {
+        checkEvaluated();
+        return fitness[index];
+    }
+
+    /**
+     * @return The fittest individual of the current generation. Its network is reused by later generations, so copy
+     *         it to keep it, e.g. with new NeuralNetwork(evolution.getBest()).
+     * @throws IllegalStateException Thrown if the current generation has not been evaluated.
+     */
+    public NeuralNetwork getBest() {
+        return population[best()];
+    }
+
+    /**
+     * @return The fitness of the fittest individual of the current generation.
+     * @throws IllegalStateException Thrown if the current generation has not been evaluated.
+     */
+    public double getBestFitness() {
+        return fitness[best()];
+    }
+
+    private int best() {
+        checkEvaluated();
+        int best = 0;
+        for (int i = 1; i < fitness.length; i++) {
+            if (fitness[i] > fitness[best])
+                best = i;
+        }
+        return best;
+    }
+
+    private void checkEvaluated() {
+        if (!evaluated)
+            throw new IllegalStateException("Error: The population has not been evaluated, call evaluate() first");
+    }
+
+    /**
+     * Shuts down the evolution's fork-join pool, if it created one.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor)
+            executor.shutdown();
+    }
+}
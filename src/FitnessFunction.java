@@ -0,0 +1,13 @@
+/**
+ * Scores an individual of an Evolution's population. It is called from several threads at once, each with a
+ * different network, so it must not share any mutable state between calls.
+ */
+public interface FitnessFunction {
+    /**
+     * @param network The individual to be scored. Its weights must not be kept or changed, as the network is reused
+     *                by later generations.
+     * @return The fitness of the individual, where higher is better.
+     * @throws Exception Thrown if the individual cannot be scored, which stops the generation.
+     */
+    double evaluate(NeuralNetwork network) throws Exception;
+}
@@ -0,0 +1,196 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The single-precision version of Layer, used by FloatNeuralNetwork. Every weight, bias, value and gradient is stored
+ * as a float, which halves the memory each pass must stream through and doubles the lanes of each vector kernel.
+ */
+public class FloatLayer {
+    // The number of neurons in this layer.
+    public final int size;
+    // The number of neurons in the previous layer, which is also the length of each weight row.
+    public final int inputs;
+    // The weights from the previous layer, row-major [size][inputs].
+    public float[] weights;
+    // The weight for a 1.0 bias of each neuron.
+    public float[] biases;
+    // The value of each neuron.
+    public float[] values;
+    // The derived value of each neuron.
+    public float[] derivatives;
+    // The error of each neuron for the last example.
+    public float[] errors;
+    // The current learning rate of each neuron, as used by backProp().
+    public float[] learningRates;
+    // The weight gradients summed by sumError(), row-major [size][inputs].
+    public float[] weightGradients;
+    // The bias gradients summed by sumError().
+    public float[] biasGradients;
+    // The activation function being used.
+    public int activationFunction;
+    // Which weights survived pruning, row-major [size][inputs], or null if the layer has not been pruned.
+    public boolean[] mask;
+
+    /**
+     * Initializes the FloatLayer.
+     * @param size               The number of neurons in the layer.
+     * @param inputs             The number of neurons in the previous layer, 0 for the input layer.
+     * @param activationFunction The activation function to be used.
+     *                           1 - Linear
+     *                           2 - Sigmoid
+     *                           3 - None
+     * @param learningRate       The starting learning rate of each neuron.
+     */
+    public FloatLayer(int size, int inputs, int activationFunction, double learningRate) {
+        this.size = size;
+        this.inputs = inputs;
+        this.activationFunction = activationFunction;
+        weights = new float[size * inputs];
+        biases = new float[size];
+        values = new float[size];
+        derivatives = new float[size];
+        errors = new float[size];
+        learningRates = new float[size];
+        weightGradients = new float[size * inputs];
+        biasGradients = new float[size];
+        Arrays.fill(learningRates, (float) learningRate);
+    }
+
+    /**
+     * Initializes a copy of the layer, including its weights, biases and any summed gradients.
+     * @param parent The layer to be copied from.
+     */
+    public FloatLayer(FloatLayer parent) {
+        size = parent.size;
+        inputs = parent.inputs;
+        activationFunction = parent.activationFunction;
+        weights = parent.weights.clone();
+        biases = parent.biases.clone();
+        values = parent.values.clone();
+        derivatives = parent.derivatives.clone();
+        errors = parent.errors.clone();
+        learningRates = parent.learningRates.clone();
+        weightGradients = parent.weightGradients.clone();
+        biasGradients = parent.biasGradients.clone();
+        mask = parent.mask == null ? null : parent.mask.clone();
+    }
+
+    /**
+     * Initializes a single-precision copy of a double-precision layer's weights, biases and mask.
+     * @param parent       The layer to be copied from.
+     * @param learningRate The starting learning rate of each neuron.
+     */
+    public FloatLayer(Layer parent, double learningRate) {
+        this(parent.size, parent.inputs, parent.activationFunction, learningRate);
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) parent.weights[i];
+        }
+        for (int n = 0; n < size; n++) {
+            biases[n] = (float) parent.biases[n];
+        }
+        mask = parent.mask == null ? null : parent.mask.clone();
+    }
+
+    /**
+     * Establishes random weights and biases for this layer, [-1.0,1.0]. Pruned weights stay zero.
+     * @param random The source of randomness.
+     */
+    public void initialize(Random random) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (random.nextFloat() - 0.5f) * 2.0f;
+        }
+        for (int n = 0; n < size; n++) {
+            biases[n] = (random.nextFloat() - 0.5f) * 2.0f;
+        }
+        Arrays.fill(errors, 0.0f);
+        Arrays.fill(derivatives, 0.0f);
+        Arrays.fill(weightGradients, 0.0f);
+        Arrays.fill(biasGradients, 0.0f);
+        applyMask();
+    }
+
+    /**
+     * Zeroes every weight removed from the mask, if the layer has been pruned.
+     */
+    public void applyMask() {
+        if (mask == null)
+            return;
+        for (int i = 0; i < weights.length; i++) {
+            if (!mask[i])
+                weights[i] = 0.0f;
+        }
+    }
+
+    /**
+     * Calculates the value and derivative of each neuron from the values of the previous layer.
+     * @param lastValues The values of the previous layer.
+     */
+    public void calculate(float[] lastValues) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int n = 0; n < size; n++) {
+            // Including our bias here, which is our bias * 1.0.
+            values[n] = biases[n] + kernels.dot(lastValues, 0, weights, n * inputs, inputs);
+        }
+        switch (activationFunction) {
+            case 1 -> kernels.relu(values, derivatives, 0, size);
+            case 2 -> kernels.sigmoid(values, derivatives, 0, size);
+            case 3 -> Arrays.fill(derivatives, 1.0f);
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        }
+    }
+
+    /**
+     * Uses the derivative of the layer's activation function on the given value.
+     * @param sum The value to be derived.
+     * @return The derivative of the activation function at <code>sum</code>.
+     */
+    public float getDerivative(float sum) {
+        return switch (activationFunction) {
+            case 1 -> (float) Layer.linearDerive(sum);
+            case 2 -> (float) Layer.sigmoidDerive(sum);
+            case 3 -> 1;
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        };
+    }
+
+    /**
+     * Stores the transposed weights of <code>next</code> multiplied by its errors into this layer's errors, without
+     * applying this layer's derivatives.
+     * @param next The layer after this one, whose errors are already computed.
+     */
+    public void sumErrors(FloatLayer next) {
+        Kernels kernels = Kernels.INSTANCE;
+        Arrays.fill(errors, 0.0f);
+        for (int k = 0; k < next.size; k++) {
+            kernels.axpy(next.errors[k], next.weights, k * size, errors, 0, size);
+        }
+    }
+
+    /**
+     * Adds the gradients of the last example to the summed weight and bias gradients.
+     * @param lastValues The values of the previous layer for that example.
+     */
+    public void sumGradients(float[] lastValues) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int n = 0; n < size; n++) {
+            biasGradients[n] += errors[n];
+            kernels.axpy(errors[n], lastValues, 0, weightGradients, n * inputs, inputs);
+        }
+    }
+
+    /**
+     * Applies the summed gradients to the weights and biases, and then resets them.
+     * @param scale The factor the gradients are multiplied by, usually learningRate / examples.
+     */
+    public void applyGradients(float scale) {
+        Kernels kernels = Kernels.INSTANCE;
+        kernels.axpy(scale, biasGradients, 0, biases, 0, size);
+        // One row at a time, as Layer.applyGradients() does, so the vector backend does not allocate.
+        for (int n = 0; n < size; n++) {
+            kernels.axpy(scale, weightGradients, n * inputs, weights, n * inputs, inputs);
+        }
+        Arrays.fill(biasGradients, 0.0f);
+        Arrays.fill(weightGradients, 0.0f);
+        applyMask();
+    }
+}
@@ -0,0 +1,345 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A single-precision version of NeuralNetwork's original single-example API: setInputs(), calculate(), getOutputs(),
+ * backProp(), and sumError() with backPropSumError() for mini-batching, along with copying, saving and loading. Every
+ * weight, bias and activation is stored as a float, halving the model's memory and the bandwidth each pass needs.
+ * Whole-batch passes, predict(), optimizers, metrics and binary model files are only provided by NeuralNetwork. Use it
+ * in place of NeuralNetwork when float precision and this API are enough; it reads and writes the same text files, so
+ * models can be moved between the two.
+ */
+public class FloatNeuralNetwork {
+    // Each layer of the network, stored as flat weight, bias and activation arrays.
+    public FloatLayer[] network;
+    public final int layers;
+    public double learningRate;
+    private double errorSum;
+
+    /**
+     * @param inputs The number of inputs.
+     * @param outputs The number of outputs.
+     * @param hiddenLayers The number of hidden layers.
+     * @param layerNeurons An integer array specifying the number of neurons in each hidden layer.
+     */
+    public FloatNeuralNetwork(int inputs, int outputs, int hiddenLayers, int[] layerNeurons, double learningRate) {
+        this.learningRate = learningRate;
+        layers = 2 + hiddenLayers;
+        network = new FloatLayer[layers];
+        errorSum = 0;
+
+        network[0] = new FloatLayer(inputs, 0, 3, learningRate);
+        for (int i = 1; i < layers - 1; i++) {
+            network[i] = new FloatLayer(layerNeurons[i - 1], network[i - 1].size, 1, learningRate);
+        }
+        network[layers - 1] = new FloatLayer(outputs, network[layers - 2].size, 2, learningRate);
+    }
+
+    /**
+     * A copy constructor for FloatNeuralNetwork.
+     * @param neuralNetwork The FloatNeuralNetwork to be copied from.
+     */
+    public FloatNeuralNetwork(FloatNeuralNetwork neuralNetwork) {
+        learningRate = neuralNetwork.learningRate;
+        errorSum = neuralNetwork.errorSum;
+        layers = neuralNetwork.layers;
+        network = new FloatLayer[layers];
+        for (int layer = 0; layer < layers; layer++) {
+            network[layer] = new FloatLayer(neuralNetwork.network[layer]);
+        }
+    }
+
+    /**
+     * Creates a single-precision copy of a double-precision network, e.g. to serve a model trained in double.
+     * @param neuralNetwork The NeuralNetwork to be copied from.
+     */
+    public FloatNeuralNetwork(NeuralNetwork neuralNetwork) {
+        learningRate = neuralNetwork.learningRate;
+        errorSum = 0;
+        layers = neuralNetwork.layers;
+        network = new FloatLayer[layers];
+        for (int layer = 0; layer < layers; layer++) {
+            network[layer] = new FloatLayer(neuralNetwork.network[layer], learningRate);
+        }
+    }
+
+    /**
+     * Copies the weights and biases from the given network to the current one.
+     * Ensure both networks are of equal size.
+     * @param parent The network whose weights are to be copied from.
+     */
+    public void copyWeightFrom(FloatNeuralNetwork parent) {
+        for (int layer = 1; layer < layers; layer++) {
+            FloatLayer from = parent.network[layer];
+            FloatLayer to = network[layer];
+            System.arraycopy(from.weights, 0, to.weights, 0, to.weights.length);
+            System.arraycopy(from.biases, 0, to.biases, 0, to.size);
+            System.arraycopy(from.learningRates, 0, to.learningRates, 0, to.size);
+        }
+    }
+
+    /**
+     * Initializes and randomizes the connections between each layer in the neural network. This must be done before
+     * data is input, or no output will be generated.
+     */
+    public void initialize() {
+        Random random = new Random();
+        for (int layer = 1; layer < layers; layer++) {
+            network[layer].initialize(random);
+        }
+    }
+
+    /**
+     * This function calculates the output(s) of the neural network, which are stored in the output layer. Call
+     * getOutputs() to access this processed data.
+     */
+    public void calculate() {
+        for (int layer = 1; layer < layers; layer++) {
+            network[layer].calculate(network[layer - 1].values);
+        }
+    }
+
+    /**
+     * In order for these values returned to be valid to the dataset provided, use the calculate() function.
+     * @return An array of doubles of the size of the output layer, which are the values of the corresponding neurons.
+     */
+    public double[] getOutputs() {
+        float[] values = network[layers - 1].values;
+        double[] outputs = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            outputs[i] = values[i];
+        }
+        return outputs;
+    }
+
+    /**
+     * Copies the outputs of the last calculate() into the given array, without allocating a new one.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     */
+    public void getOutputs(double[] outputs) {
+        float[] values = network[layers - 1].values;
+        for (int i = 0; i < values.length; i++) {
+            outputs[i] = values[i];
+        }
+    }
+
+    /**
+     * Sets the input values of the neural network - must be an array of doubles of equal size to the input layer.
+     * This must be done before calling @calculate() or the output will be useless.
+     * @param inputs The array of doubles representing data.
+     */
+    public void setInputs(double[] inputs) {
+        float[] values = network[0].values;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) inputs[i];
+        }
+    }
+
+    /**
+     * Sets the input values of the neural network without any conversion.
+     * @param inputs The array of floats representing data, of equal size to the input layer.
+     */
+    public void setInputs(float[] inputs) {
+        System.arraycopy(inputs, 0, network[0].values, 0, network[0].size);
+    }
+
+    /**
+     * This function performs backpropagation depending on the set input, as NeuralNetwork.backProp() does.
+     * @param expectedOutput The values which are expected from the neural network.
+     * @throws IllegalArgumentException Ensure that expectedOutput is equal in length to the output layer.
+     */
+    public void backProp(double[] inputs, double[] expectedOutput) {
+        if (expectedOutput.length != network[layers - 1].size)
+            throw outputSizeMismatch(expectedOutput.length);
+        setInputs(inputs);
+        calculate();
+
+        // Calculate output error.
+        FloatLayer layer = network[layers - 1];
+        for (int i = 0; i < layer.size; i++) {
+            float difference = (float) expectedOutput[i] - layer.values[i];
+            layer.errors[i] = layer.derivatives[i] * difference;
+            layer.learningRates[i] = layer.getDerivative(Math.abs(difference));
+        }
+
+        // Calculate hidden layer error.
+        for (int i = layers - 2; i > 0; i--) {
+            layer = network[i];
+            FloatLayer next = network[i + 1];
+            layer.sumErrors(next);
+            for (int j = 0; j < layer.size; j++) {
+                layer.learningRates[j] = layer.getDerivative((1.0f / next.size) * layer.errors[j]);
+                layer.errors[j] *= layer.derivatives[j];
+            }
+        }
+
+        // Update weights.
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = layers - 1; i > 0; i--) {
+            layer = network[i];
+            float[] lastValues = network[i - 1].values;
+            for (int n = 0; n < layer.size; n++) {
+                float change = layer.learningRates[n] * layer.errors[n];
+                layer.biases[n] += change;
+                kernels.axpy(change, lastValues, 0, layer.weights, n * layer.inputs, layer.inputs);
+            }
+            layer.applyMask();
+        }
+    }
+
+    /**
+     * Use this method to sum the error for a given example. Use this across multiple examples to then use the
+     * backPropSumError() method to update the neural network to those errors.
+     * @param expectedOutput The values by which errors are summed from.
+     * @throws IllegalArgumentException Ensure that expectedOutput is equal in length to the output layer.
+     */
+    public void sumError(double[] input, double[] expectedOutput) {
+        if (expectedOutput.length != network[layers - 1].size)
+            throw outputSizeMismatch(expectedOutput.length);
+        errorSum += 1.0;
+        setInputs(input);
+        calculate();
+
+        // Calculate output error.
+        FloatLayer layer = network[layers - 1];
+        for (int i = 0; i < layer.size; i++) {
+            layer.errors[i] = layer.derivatives[i] * ((float) expectedOutput[i] - layer.values[i]);
+        }
+
+        // Calculate hidden layer error.
+        for (int i = layers - 2; i > 0; i--) {
+            layer = network[i];
+            layer.sumErrors(network[i + 1]);
+            for (int j = 0; j < layer.size; j++) {
+                layer.errors[j] *= layer.derivatives[j];
+            }
+        }
+
+        // Sum the gradients of this example.
+        for (int i = layers - 1; i > 0; i--) {
+            network[i].sumGradients(network[i - 1].values);
+        }
+    }
+
+    private IllegalArgumentException outputSizeMismatch(int length) {
+        return new IllegalArgumentException("Error: Expected an array equal in size to the output layer, got " +
+                length + " when expecting " + network[layers - 1].size);
+    }
+
+    /**
+     * This method performs a back propagation algorithm and resets the summed gradients.
+     * Use this with the sumError() method to fit the model to a given set of examples.
+     */
+    public void backPropSumError() {
+        if (errorSum == 0)
+            return;
+        for (int i = layers - 1; i > 0; i--) {
+            network[i].applyGradients((float) (learningRate / errorSum));
+        }
+        errorSum = 0;
+    }
+
+    /**
+     * Sets a layer of neurons to have a specific activation function.
+     * @param layer              The index of the layer to have its activation function changed.
+     * @param activationFunction The new activation function.
+     *                           1 - Linear (ReLU)
+     *                           2 - Sigmoid
+     *                           3 - Sum
+     */
+    public void setLayerActivation(int layer, int activationFunction) {
+        network[layer].activationFunction = activationFunction;
+    }
+
+    /**
+     * Save the neural network to a txt file, in the same format as NeuralNetwork.saveToFile(). Each neuron of a pruned
+     * layer lists only its kept weights, as <code>index:weight</code> pairs.
+     * @param fileName     The name of the File to be writen to. Use .txt at the end of the given string.
+     * @throws IOException Thrown if the BufferedWriter encounters an error.
+     */
+    public void saveToFile(String fileName) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fileName));
+        StringBuilder data;
+        for (int layer = 0; layer < layers; layer++) {
+            FloatLayer current = network[layer];
+            data = new StringBuilder();
+            for (int neuron = 0; neuron < current.size; neuron++) {
+                data.append(current.activationFunction).append(",").append(current.biases[neuron]);
+                int row = neuron * current.inputs;
+                for (int weight = 0; weight < current.inputs; weight++) {
+                    if (current.mask == null)
+                        data.append(",").append(current.weights[row + weight]);
+                    else if (current.mask[row + weight])
+                        data.append(",").append(weight).append(":").append(current.weights[row + weight]);
+                }
+                data.append("|");
+            }
+            bw.write(data.toString());
+            bw.newLine();
+        }
+        bw.close();
+    }
+
+    /**
+     * Loads the given file onto the neural network, rounding every weight to single precision. The file may have
+     * been written by either NeuralNetwork or FloatNeuralNetwork.
+     * @param fileName     The name of the File to be read from. Use .txt at the end of the given string.
+     * @throws IOException Thrown if the BufferedReader encounters an error, or the file has a different number of
+     *                     layers to this network.
+     */
+    public void loadFromFile(String fileName) throws IOException {
+        FloatLayer[] loaded = readText(fileName, learningRate);
+        if (loaded.length != layers) {
+            throw new IOException("Error: Expected " + layers + " layers in " + fileName + ", got " + loaded.length);
+        }
+        network = loaded;
+        errorSum = 0;
+    }
+
+    /**
+     * Reads the layers of a file written by saveToFile() straight into single precision, as NeuralNetwork.readText()
+     * does in double, so no double copy of the model is ever held.
+     * @param fileName     The name of the File to be read from.
+     * @param learningRate The starting learning rate of each neuron.
+     * @return The layers stored in the file.
+     * @throws IOException Thrown if the BufferedReader encounters an error.
+     */
+    public static FloatLayer[] readText(String fileName, double learningRate) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(fileName));
+        List<FloatLayer> loaded = new ArrayList<>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] neuron = line.split("\\|");
+            int inputs = loaded.isEmpty() ? 0 : loaded.get(loaded.size() - 1).size;
+            FloatLayer layer = null;
+            for (int i = 0; i < neuron.length; i++) {
+                String[] fields = neuron[i].split(",");
+                if (layer == null) {
+                    layer = new FloatLayer(neuron.length, inputs, Integer.parseInt(fields[0]), learningRate);
+                }
+                layer.biases[i] = Float.parseFloat(fields[1]);
+                int row = i * inputs;
+                if (inputs > 0 && (fields.length != inputs + 2 || fields[2].indexOf(':') >= 0)) {
+                    // A neuron of a pruned layer, listing only its kept weights.
+                    if (layer.mask == null)
+                        layer.mask = new boolean[layer.weights.length];
+                    for (int field = 2; field < fields.length; field++) {
+                        int separator = fields[field].indexOf(':');
+                        int weight = Integer.parseInt(fields[field].substring(0, separator));
+                        layer.weights[row + weight] = Float.parseFloat(fields[field].substring(separator + 1));
+                        layer.mask[row + weight] = true;
+                    }
+                } else {
+                    for (int weight = 0; weight < inputs; weight++) {
+                        layer.weights[row + weight] = Float.parseFloat(fields[weight + 2]);
+                    }
+                }
+            }
+            loaded.add(layer);
+        }
+        br.close();
+        return loaded.toArray(new FloatLayer[0]);
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * Weight and bias gradients for every layer of a network, summed over some number of examples. Each thread training
+ * a shard of a batch keeps its own Gradients, so no two threads ever write to the same array.
+ */
+public class Gradients {
+    // The weight gradients of each layer, row-major [size][inputs].
+    public final double[][] weights;
+    // The bias gradients of each layer.
+    public final double[][] biases;
+
+    /**
+     * Allocates zeroed gradients matching the given layers.
+     * @param network The layers of the network.
+     */
+    public Gradients(Layer[] network) {
+        weights = new double[network.length][];
+        biases = new double[network.length][];
+        for (int layer = 0; layer < network.length; layer++) {
+            weights[layer] = new double[network[layer].weights.length];
+            biases[layer] = new double[network[layer].size];
+        }
+    }
+
+    private Gradients(double[][] weights, double[][] biases) {
+        this.weights = weights;
+        this.biases = biases;
+    }
+
+    /**
+     * @param network The layers of the network.
+     * @return Gradients backed by the layers' own summed gradients, as used by sumError() and backPropSumError().
+     */
+    public static Gradients of(Layer[] network) {
+        double[][] weights = new double[network.length][];
+        double[][] biases = new double[network.length][];
+        for (int layer = 0; layer < network.length; layer++) {
+            weights[layer] = network[layer].weightGradients;
+            biases[layer] = network[layer].biasGradients;
+        }
+        return new Gradients(weights, biases);
+    }
+
+    /**
+     * Checks whether these gradients match the shape of the given layers.
+     * @param network The layers of the network.
+     * @return True if every layer has gradients of the same size as its weights and biases.
+     */
+    public boolean fits(Layer[] network) {
+        if (weights.length != network.length)
+            return false;
+        for (int layer = 0; layer < network.length; layer++) {
+            if (weights[layer].length != network[layer].weights.length || biases[layer].length != network[layer].size)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resets every gradient to 0, e.g. to discard a partly summed batch.
+     */
+    public void clear() {
+        for (int layer = 0; layer < weights.length; layer++) {
+            Arrays.fill(weights[layer], 0.0);
+            Arrays.fill(biases[layer], 0.0);
+        }
+    }
+
+    /**
+     * Adds the weight gradients <code>[from, to)</code> of one layer of each of the given gradients to this one's, in
+     * order, and resets them. Summing in a fixed order keeps the result identical no matter which thread performs it.
+     * @param others The gradients to collect.
+     * @param layer  The layer to collect.
+     * @param from   The first weight index to collect.
+     * @param to     The index after the last weight to collect.
+     */
+    public void collectWeights(Gradients[] others, int layer, int from, int to) {
+        double[] target = weights[layer];
+        for (Gradients other : others) {
+            double[] source = other.weights[layer];
+            for (int i = from; i < to; i++) {
+                target[i] += source[i];
+                source[i] = 0.0;
+            }
+        }
+    }
+
+    /**
+     * Adds the bias gradients of one layer of each of the given gradients to this one's, in order, and resets them.
+     * @param others The gradients to collect.
+     * @param layer  The layer to collect.
+     */
+    public void collectBiases(Gradients[] others, int layer) {
+        double[] target = biases[layer];
+        for (Gradients other : others) {
+            double[] source = other.biases[layer];
+            for (int i = 0; i < target.length; i++) {
+                target[i] += source[i];
+                source[i] = 0.0;
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import java.util.Arrays;
+
+/**
+ * A bounded cache of a NeuralNetwork's outputs, keyed on the exact input vector, for deployments where the same inputs
+ * are predicted over and over. Entries live in flat primitive arrays, found through an open-addressed hash table of
+ * the inputs' bits, and the least recently used entry is evicted once the cache is full, so a lookup neither boxes nor
+ * allocates.
+ * <p>
+ * The cache remembers the network's version, see NeuralNetwork.getVersion(), and empties itself the first time it is
+ * used after the weights have changed. Any number of threads may use it at once: misses are predicted outside of the
+ * cache's lock with NeuralNetwork.predict().
+ */
+public class InferenceCache {
+    // The multiplier used to mix each input into the hash.
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final NeuralNetwork network;
+    // The largest number of entries held.
+    private final int capacity;
+    private final int inputs;
+    private final int outputs;
+    // The inputs of each entry, [capacity][inputs].
+    private final double[] keys;
+    // The outputs of each entry, [capacity][outputs].
+    private final double[] results;
+    // The hash of each entry's inputs.
+    private final int[] hashes;
+    // The hash table, holding the index of the entry in each slot or -1 if it is empty.
+    private final int[] slots;
+    private final int mask;
+    // The entries in order of use, as a doubly linked list from the most recently used head to the tail.
+    private final int[] previous;
+    private final int[] next;
+    private int head = -1;
+    private int tail = -1;
+    private int size;
+    // The network version the entries were calculated with.
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param network  The network whose outputs are cached.
+     * @param capacity The largest number of input vectors to cache.
+     */
+    public InferenceCache(NeuralNetwork network, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Error: Expected a capacity of at least 1, got " + capacity);
+        }
+        this.network = network;
+        this.capacity = capacity;
+        inputs = network.network[0].size;
+        outputs = network.network[network.layers - 1].size;
+        keys = new double[capacity * inputs];
+        results = new double[capacity * outputs];
+        hashes = new int[capacity];
+        previous = new int[capacity];
+        next = new int[capacity];
+        // Keep the table at most half full, so probes stay short.
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        mask = slots.length - 1;
+        Arrays.fill(slots, -1);
+        version = network.getVersion();
+    }
+
+    /**
+     * Copies the network's outputs for the given inputs into <code>outputs</code>, from the cache if they have been
+     * calculated before with the current weights, or by predicting and caching them otherwise.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IllegalArgumentException Ensure that inputs is equal in length to the input layer.
+     */
+    public void calculate(double[] inputs, double[] outputs) {
+        if (inputs.length != this.inputs) {
+            throw new IllegalArgumentException("Error: Expected an array equal in size to the input layer, got " +
+                    inputs.length + " when expecting " + this.inputs);
+        }
+        int hash = hash(inputs);
+        long current;
+        synchronized (this) {
+            current = network.getVersion();
+            if (current != version)
+                invalidate(current);
+            int slot = find(inputs, hash);
+            if (slot >= 0) {
+                int entry = slots[slot];
+                System.arraycopy(results, entry * this.outputs, outputs, 0, this.outputs);
+                moveToHead(entry);
+                hits++;
+                return;
+            }
+            misses++;
+        }
+
+        network.predict(inputs, outputs);
+
+        synchronized (this) {
+            // Only cache the outputs if the weights did not change while predicting, and no other thread beat us.
+            if (current == version && network.getVersion() == current && find(inputs, hash) < 0)
+                insert(inputs, hash, outputs);
+        }
+    }
+
+    /**
+     * Empties the cache, keeping its statistics.
+     */
+    public synchronized void clear() {
+        Arrays.fill(slots, -1);
+        head = -1;
+        tail = -1;
+        size = 0;
+    }
+
+    /**
+     * Empties the cache for a new network version.
+     */
+    private void invalidate(long current) {
+        if (size > 0)
+            invalidations++;
+        clear();
+        version = current;
+    }
+
+    /**
+     * @return The slot holding the given inputs, or -1 if they are not cached.
+     */
+    private int find(double[] inputs, int hash) {
+        for (int slot = hash & mask; slots[slot] != -1; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (hashes[entry] == hash && matches(entry, inputs))
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The slot holding a cached entry.
+     */
+    private int slotOf(int entry) {
+        int slot = hashes[entry] & mask;
+        while (slots[slot] != entry) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int entry, double[] inputs) {
+        int row = entry * this.inputs;
+        for (int i = 0; i < this.inputs; i++) {
+            if (Double.doubleToLongBits(keys[row + i]) != Double.doubleToLongBits(inputs[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds an entry, evicting the least recently used one if the cache is full.
+     */
+    private void insert(double[] inputs, int hash, double[] outputs) {
+        int entry;
+        if (size == capacity) {
+            entry = tail;
+            unlink(entry);
+            remove(slotOf(entry));
+            evictions++;
+        } else {
+            entry = size++;
+        }
+        System.arraycopy(inputs, 0, keys, entry * this.inputs, this.inputs);
+        System.arraycopy(outputs, 0, results, entry * this.outputs, this.outputs);
+        hashes[entry] = hash;
+        int slot = hash & mask;
+        while (slots[slot] != -1) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry;
+        link(entry);
+    }
+
+    /**
+     * Empties a slot of the table, shifting back any later entries of the same probe run so none become unreachable.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        for (int i = (slot + 1) & mask; slots[i] != -1; i = (i + 1) & mask) {
+            int home = hashes[slots[i]] & mask;
+            // The entry may fill the hole unless its home slot lies between the hole and where it sits now.
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = -1;
+    }
+
+    private void moveToHead(int entry) {
+        if (entry == head)
+            return;
+        unlink(entry);
+        link(entry);
+    }
+
+    /**
+     * Adds an entry to the head of the use order.
+     */
+    private void link(int entry) {
+        previous[entry] = -1;
+        next[entry] = head;
+        if (head != -1)
+            previous[head] = entry;
+        head = entry;
+        if (tail == -1)
+            tail = entry;
+    }
+
+    /**
+     * Removes an entry from the use order.
+     */
+    private void unlink(int entry) {
+        if (previous[entry] != -1)
+            next[previous[entry]] = next[entry];
+        else
+            head = next[entry];
+        if (next[entry] != -1)
+            previous[next[entry]] = previous[entry];
+        else
+            tail = previous[entry];
+    }
+
+    /**
+     * @return A well mixed hash of the exact bits of every input.
+     */
+    private static int hash(double[] inputs) {
+        long hash = inputs.length;
+        for (double input : inputs) {
+            hash = (hash + Double.doubleToLongBits(input)) * GOLDEN_GAMMA;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    /**
+     * @return The number of entries currently cached.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of calls answered from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of calls that had to be predicted.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of entries evicted to make room for newer ones.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of times the cache was emptied because the network's weights changed.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return The fraction of calls answered from the cache, [0.0,1.0].
+     */
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Resets the hit, miss, eviction and invalidation counts to 0.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Entries: %d/%d | Hits: %d | Misses: %d | Hit Rate: %.2f%% | Evictions: %d | " +
+                "Invalidations: %d", size, capacity, hits, misses, hitRate() * 100, evictions, invalidations);
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A client of an InferenceServer, holding a single connection that requests are sent over one at a time. It is not
+ * thread-safe, so give each thread its own client.
+ * <pre>
+ * try (InferenceClient client = new InferenceClient("localhost", port)) {
+ *     client.predict(inputs, outputs);
+ * }
+ * </pre>
+ */
+public class InferenceClient implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a server.
+     * @param host The host the server runs on.
+     * @param port The port the server listens on.
+     * @throws IOException Thrown if the server cannot be connected to.
+     */
+    public InferenceClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Sends the inputs to the server and waits for the network's outputs.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IOException Thrown if the server rejects the request or the connection fails.
+     */
+    public void predict(double[] inputs, double[] outputs) throws IOException {
+        send(inputs);
+        int length = receive();
+        if (length != outputs.length) {
+            // Read the answer anyway, so the connection can still be used.
+            in.skipNBytes(8L * length);
+            throw new IOException("Error: Expected " + outputs.length + " outputs, got " + length);
+        }
+        for (int i = 0; i < length; i++) {
+            outputs[i] = in.readDouble();
+        }
+    }
+
+    /**
+     * Sends the inputs to the server and waits for the network's outputs, however many the server answers with.
+     * @param inputs The array of doubles representing data, of equal size to the input layer.
+     * @return The outputs of the network.
+     * @throws IOException Thrown if the server rejects the request or the connection fails.
+     */
+    public double[] predict(double[] inputs) throws IOException {
+        send(inputs);
+        double[] outputs = new double[receive()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = in.readDouble();
+        }
+        return outputs;
+    }
+
+    /**
+     * Asks the server for the shape of its network, by sending a request of 0 inputs.
+     * @return The number of inputs and the number of outputs of the network.
+     * @throws IOException Thrown if the connection fails.
+     */
+    public int[] shape() throws IOException {
+        out.writeInt(0);
+        out.flush();
+        return new int[] {in.readInt(), in.readInt()};
+    }
+
+    private void send(double[] inputs) throws IOException {
+        out.writeInt(inputs.length);
+        for (double input : inputs) {
+            out.writeDouble(input);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return The number of outputs in the server's answer.
+     * @throws IOException Thrown with the server's message if it rejected the request.
+     */
+    private int receive() throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException(in.readUTF());
+        }
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,449 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A small inference server for a NeuralNetwork on localhost, using nothing but the JDK. Each connection is served on
+ * its own task of an executor, and the requests of every connection are coalesced into micro-batches: a batch is run
+ * as soon as it holds maxBatchSize requests, or once its first request has waited maxWait, through a single
+ * calculateBatch() on one batching thread.
+ * <p>
+ * The protocol is plain TCP with big-endian values, as written by DataOutputStream. A request is an int holding the
+ * number of inputs followed by that many doubles, and is answered by an int holding the number of outputs followed
+ * by that many doubles. A request of 0 inputs asks for the shape of the network instead, and is answered by an int
+ * holding the number of inputs and another holding the number of outputs. A request of any other wrong size is
+ * answered by -1 and a message written by writeUTF(), and the connection is closed. A connection may send any number
+ * of requests, one after another. See InferenceClient.
+ * <pre>
+ * try (InferenceServer server = new InferenceServer(nn, 0, 64, 200_000)) {
+ *     System.out.println("Listening on " + server.getPort());
+ *     ...
+ *     System.out.println(server);
+ * }
+ * </pre>
+ * Only the batching thread uses the network, so it must not be trained while the server is running.
+ */
+public class InferenceServer implements AutoCloseable {
+    // How long the batching thread waits for a request before checking whether the server was closed.
+    private static final long IDLE_NANOS = 100_000_000L;
+
+    private final NeuralNetwork network;
+    private final int inputs;
+    private final int outputs;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final boolean ownsExecutor;
+    private final BlockingQueue<Request> queue;
+    // The open connections, closed along with the server.
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private final Thread batcher;
+    private volatile boolean closed;
+
+    // The requests of the batch being run, and the rows their inputs and outputs are copied through.
+    private final Request[] batch;
+    private final double[][] inputRows;
+    private final double[][] outputRows;
+    // The first count rows of inputRows and outputRows, for each count, so a batch never allocates its arrays.
+    private final double[][][] inputViews;
+    private final double[][][] outputViews;
+
+    // The statistics, guarded by the server's lock.
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long requests;
+    private long batches;
+    private long statisticsStart = System.nanoTime();
+
+    /**
+     * Starts a server on localhost, serving each connection on its own thread of a cached thread pool.
+     * @param network      The network to serve.
+     * @param port         The port to listen on, or 0 for any free port, see getPort().
+     * @param maxBatchSize The largest number of requests run as one batch.
+     * @param maxWaitNanos The longest time a request waits for others to join its batch.
+     * @throws IOException Thrown if the port cannot be listened on.
+     */
+    public InferenceServer(NeuralNetwork network, int port, int maxBatchSize, long maxWaitNanos) throws IOException {
+        this(network, port, maxBatchSize, maxWaitNanos, Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "InferenceServer-connection");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Starts a server on localhost, serving each connection as a task of the given executor, which is left open when
+     * the server is closed. Each connection holds its task for as long as it stays open, so the executor needs a
+     * thread per connection, e.g. a cached thread pool, or a virtual thread per task executor where the JDK has one.
+     * @param network      The network to serve.
+     * @param port         The port to listen on, or 0 for any free port, see getPort().
+     * @param maxBatchSize The largest number of requests run as one batch.
+     * @param maxWaitNanos The longest time a request waits for others to join its batch.
+     * @param connections  The executor each connection is served on.
+     * @throws IOException Thrown if the port cannot be listened on.
+     */
+    public InferenceServer(NeuralNetwork network, int port, int maxBatchSize, long maxWaitNanos,
+                           ExecutorService connections) throws IOException {
+        this(network, port, maxBatchSize, maxWaitNanos, connections, false);
+    }
+
+    private InferenceServer(NeuralNetwork network, int port, int maxBatchSize, long maxWaitNanos,
+                            ExecutorService connections, boolean ownsExecutor) throws IOException {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Error: Expected a batch size of at least 1, got " + maxBatchSize);
+        }
+        if (maxWaitNanos < 0) {
+            throw new IllegalArgumentException("Error: Expected a wait of at least 0, got " + maxWaitNanos);
+        }
+        this.network = network;
+        this.inputs = network.network[0].size;
+        this.outputs = network.network[network.layers - 1].size;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        this.connections = connections;
+        this.ownsExecutor = ownsExecutor;
+        queue = new ArrayBlockingQueue<>(Math.max(1024, maxBatchSize * 4));
+        batch = new Request[maxBatchSize];
+        inputRows = new double[maxBatchSize][inputs];
+        outputRows = new double[maxBatchSize][outputs];
+        inputViews = new double[maxBatchSize + 1][][];
+        outputViews = new double[maxBatchSize + 1][][];
+        for (int count = 1; count <= maxBatchSize; count++) {
+            inputViews[count] = Arrays.copyOf(inputRows, count);
+            outputViews[count] = Arrays.copyOf(outputRows, count);
+        }
+
+        serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "InferenceServer-acceptor");
+        acceptor.setDaemon(true);
+        batcher = new Thread(this::batch, "InferenceServer-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        acceptor.start();
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * The acceptor thread, which hands each new connection to the executor.
+     */
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // Closed along with the server.
+                return;
+            }
+            sockets.add(socket);
+            try {
+                connections.execute(() -> serve(socket));
+            } catch (RuntimeException e) {
+                // The executor was shut down.
+                close(socket);
+            }
+        }
+    }
+
+    /**
+     * Answers the requests of a single connection until it is closed.
+     */
+    private void serve(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            Request request = new Request(inputs, outputs);
+            while (!closed) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length == 0) {
+                    out.writeInt(inputs);
+                    out.writeInt(outputs);
+                    out.flush();
+                    continue;
+                }
+                if (length != inputs) {
+                    out.writeInt(-1);
+                    out.writeUTF("Error: Expected " + inputs + " inputs, got " + length);
+                    out.flush();
+                    return;
+                }
+                for (int i = 0; i < inputs; i++) {
+                    request.inputs[i] = in.readDouble();
+                }
+
+                String error = run(request);
+                if (error != null) {
+                    out.writeInt(-1);
+                    out.writeUTF(error);
+                    out.flush();
+                    return;
+                }
+                out.writeInt(outputs);
+                for (int i = 0; i < outputs; i++) {
+                    out.writeDouble(request.outputs[i]);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away.
+        } finally {
+            close(socket);
+        }
+    }
+
+    /**
+     * Queues a request for the batching thread and waits for it to be answered.
+     * @return Null if the request's outputs were calculated, or the reason they were not.
+     */
+    private String run(Request request) {
+        request.thread = Thread.currentThread();
+        request.error = null;
+        request.done = false;
+        request.arrival = System.nanoTime();
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error: Interrupted while queueing the request";
+        }
+        while (!request.done) {
+            LockSupport.parkNanos(this, IDLE_NANOS);
+            if (closed && !request.done && !batcher.isAlive())
+                return "Error: The server is closed";
+        }
+        return request.error;
+    }
+
+    /**
+     * The batching thread, which gathers queued requests into batches and runs each through the network.
+     */
+    private void batch() {
+        try {
+            while (!closed) {
+                Request first = queue.poll(IDLE_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null)
+                    continue;
+                batch[0] = first;
+                int count = 1;
+                long deadline = first.arrival + maxWaitNanos;
+                while (count < maxBatchSize) {
+                    Request next = queue.poll();
+                    if (next == null) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0)
+                            break;
+                        next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next == null)
+                            break;
+                    }
+                    batch[count++] = next;
+                }
+                run(count);
+            }
+        } catch (InterruptedException e) {
+            // Closed along with the server.
+        }
+
+        // Fail any request still waiting.
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.error = "Error: The server is closed";
+            complete(request);
+        }
+    }
+
+    /**
+     * Runs the first <code>count</code> requests of the batch through the network, and wakes each of them.
+     */
+    private void run(int count) {
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(batch[i].inputs, 0, inputRows[i], 0, inputs);
+        }
+        String error = null;
+        try {
+            network.calculateBatch(inputViews[count], outputViews[count]);
+        } catch (RuntimeException e) {
+            error = "Error: " + e.getMessage();
+        }
+
+        long now = System.nanoTime();
+        synchronized (this) {
+            requests += count;
+            batches++;
+            for (int i = 0; i < count; i++) {
+                latency.record(now - batch[i].arrival);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Request request = batch[i];
+            batch[i] = null;
+            if (error == null)
+                System.arraycopy(outputRows[i], 0, request.outputs, 0, outputs);
+            request.error = error;
+            complete(request);
+        }
+    }
+
+    private static void complete(Request request) {
+        request.done = true;
+        LockSupport.unpark(request.thread);
+    }
+
+    /**
+     * @return The number of requests answered since the statistics were last reset.
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return The number of batches run since the statistics were last reset.
+     */
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return The mean number of requests in each batch.
+     */
+    public synchronized double meanBatchSize() {
+        return batches == 0 ? 0 : (double) requests / batches;
+    }
+
+    /**
+     * @return The number of requests answered per second since the statistics were last reset.
+     */
+    public synchronized double throughput() {
+        return requests / ((System.nanoTime() - statisticsStart) / 1e9);
+    }
+
+    /**
+     * @param percentile The percentile, [0.0,100.0].
+     * @return The time from a request being queued to its outputs being calculated, at the given percentile, in
+     *         nanoseconds.
+     */
+    public synchronized long latency(double percentile) {
+        return latency.percentile(percentile);
+    }
+
+    /**
+     * Resets every statistic, and starts measuring throughput again from now.
+     */
+    public synchronized void resetStatistics() {
+        latency.reset();
+        requests = 0;
+        batches = 0;
+        statisticsStart = System.nanoTime();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Requests: %d | Throughput: %.0f/s | Batches: %d | Mean Batch: %.1f | Latency: %s",
+                requests, throughput(), batches, meanBatchSize(), latency);
+    }
+
+    /**
+     * Stops accepting connections, closes every open one and stops the batching thread.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+        for (Socket socket : sockets) {
+            close(socket);
+        }
+        batcher.interrupt();
+        try {
+            acceptor.join();
+            batcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsExecutor)
+            connections.shutdownNow();
+    }
+
+    private void close(Socket socket) {
+        sockets.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+
+    /**
+     * Serves a binary model file from the command line until the process is stopped.
+     * Usage: java InferenceServer &lt;model file&gt; [port] [max batch size] [max wait in microseconds]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java InferenceServer <model file> [port] [max batch size] [max wait us]");
+            System.exit(1);
+        }
+        NeuralNetwork network = ModelFile.load(Path.of(args[0]));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int maxBatchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long maxWait = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        try (InferenceServer server = new InferenceServer(network, port, maxBatchSize, maxWait * 1000)) {
+            System.out.println("Listening on localhost:" + server.getPort());
+            while (true) {
+                Thread.sleep(10_000);
+                System.out.println(server);
+                server.resetStatistics();
+            }
+        }
+    }
+
+    /**
+     * A connection's request, reused for each request it sends.
+     */
+    private static class Request {
+        final double[] inputs;
+        final double[] outputs;
+        // The connection's thread, woken once the request is answered.
+        Thread thread;
+        long arrival;
+        String error;
+        volatile boolean done;
+
+        Request(int inputs, int outputs) {
+            this.inputs = new double[inputs];
+            this.outputs = new double[outputs];
+        }
+    }
+}
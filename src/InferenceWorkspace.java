@@ -0,0 +1,35 @@
+/**
+ * The scratch state of a single forward pass made with NeuralNetwork.predict(). Hidden layer values alternate between
+ * two buffers as wide as the widest hidden layer, so a workspace is small enough to keep one per thread or per
+ * request. A workspace must only be used by one thread at a time.
+ */
+public class InferenceWorkspace {
+    // The two buffers hidden layers alternate between.
+    final double[] first;
+    final double[] second;
+
+    /**
+     * @param network The network this workspace is used with.
+     */
+    public InferenceWorkspace(NeuralNetwork network) {
+        int width = widest(network);
+        first = new double[width];
+        second = new double[width];
+    }
+
+    /**
+     * @param network The network to be predicted with.
+     * @return True if this workspace can hold the network's hidden layers.
+     */
+    public boolean fits(NeuralNetwork network) {
+        return first.length >= widest(network);
+    }
+
+    private static int widest(NeuralNetwork network) {
+        int width = 0;
+        for (int layer = 1; layer < network.layers - 1; layer++) {
+            width = Math.max(width, network.network[layer].size);
+        }
+        return width;
+    }
+}
@@ -0,0 +1,159 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A MetricsListener that emits each report as a JDK Flight Recorder event, so training and inference can be profiled
+ * alongside the JVM's own events. Start a recording with e.g.
+ * <pre>
+ * java -XX:StartFlightRecording=filename=training.jfr ...
+ * </pre>
+ * and the events appear under the "Neural Network" category. Each event is only filled in and committed when it is
+ * enabled in the recording, so a listener left attached without a recording costs little more than the timing.
+ */
+public class JfrMetricsListener implements MetricsListener {
+    @Name("NeuralNetwork.LayerForward")
+    @Label("Layer Forward")
+    @Category("Neural Network")
+    @Description("A layer calculated for one or more samples")
+    static class LayerForward extends Event {
+        @Label("Layer")
+        int layer;
+        @Label("Samples")
+        int samples;
+        @Label("Time")
+        @Timespan
+        long nanos;
+    }
+
+    @Name("NeuralNetwork.LayerBackward")
+    @Label("Layer Backward")
+    @Category("Neural Network")
+    @Description("A layer's errors and gradients propagated for one or more samples")
+    static class LayerBackward extends Event {
+        @Label("Layer")
+        int layer;
+        @Label("Samples")
+        int samples;
+        @Label("Time")
+        @Timespan
+        long nanos;
+    }
+
+    @Name("NeuralNetwork.TrainingBatch")
+    @Label("Training Batch")
+    @Category("Neural Network")
+    @Description("A weight update over one or more examples")
+    static class TrainingBatch extends Event {
+        @Label("Samples")
+        int samples;
+        @Label("Time")
+        @Timespan
+        long nanos;
+        @Label("Loss")
+        double loss;
+    }
+
+    @Name("NeuralNetwork.Inference")
+    @Label("Inference")
+    @Category("Neural Network")
+    @Description("One or more samples calculated outside of training")
+    static class Inference extends Event {
+        @Label("Samples")
+        int samples;
+        @Label("Time")
+        @Timespan
+        long nanos;
+    }
+
+    @Name("NeuralNetwork.WeightUpdate")
+    @Label("Weight Update")
+    @Category("Neural Network")
+    @Description("The magnitude of an update to a layer's weights and biases")
+    static class WeightUpdate extends Event {
+        @Label("Layer")
+        int layer;
+        @Label("Magnitude")
+        double magnitude;
+    }
+
+    @Name("NeuralNetwork.Epoch")
+    @Label("Epoch")
+    @Category("Neural Network")
+    @Description("The end of a training epoch")
+    static class Epoch extends Event {
+        @Label("Epoch")
+        int epoch;
+        @Label("Samples")
+        long samples;
+        @Label("Loss")
+        double loss;
+    }
+
+    @Override
+    public void layerForward(int layer, int samples, long nanos) {
+        LayerForward event = new LayerForward();
+        if (event.isEnabled()) {
+            event.layer = layer;
+            event.samples = samples;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void layerBackward(int layer, int samples, long nanos) {
+        LayerBackward event = new LayerBackward();
+        if (event.isEnabled()) {
+            event.layer = layer;
+            event.samples = samples;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void batchCompleted(int samples, long nanos, double loss) {
+        TrainingBatch event = new TrainingBatch();
+        if (event.isEnabled()) {
+            event.samples = samples;
+            event.nanos = nanos;
+            event.loss = loss;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void inferenceCompleted(int samples, long nanos) {
+        Inference event = new Inference();
+        if (event.isEnabled()) {
+            event.samples = samples;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void weightsUpdated(int layer, double magnitude) {
+        WeightUpdate event = new WeightUpdate();
+        if (event.isEnabled()) {
+            event.layer = layer;
+            event.magnitude = magnitude;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void epochCompleted(int epoch, long samples, double loss) {
+        Epoch event = new Epoch();
+        if (event.isEnabled()) {
+            event.epoch = epoch;
+            event.samples = samples;
+            event.loss = loss;
+            event.commit();
+        }
+    }
+}
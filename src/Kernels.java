@@ -0,0 +1,235 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The arithmetic kernels every layer is computed with. The default backend is chosen once, when this class is first
+ * used: VectorKernels when the jdk.incubator.vector module is available (run with
+ * <code>--add-modules jdk.incubator.vector</code>), otherwise the plain scalar loops below. Set the system property
+ * <code>network.kernels=scalar</code> to force the scalar backend.
+ */
+public class Kernels {
+    // The backend used by every layer.
+    public static final Kernels INSTANCE = load();
+
+    /**
+     * @return The name of this backend, e.g. for benchmark reports.
+     */
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * @return The sum of <code>a[aOffset + i] * b[bOffset + i]</code> for every <code>i</code> below
+     *         <code>length</code>.
+     */
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds <code>scale * x[xOffset + i]</code> to <code>y[yOffset + i]</code> for every <code>i</code> below
+     * <code>length</code>, e.g. a single row of a rank-1 weight update.
+     */
+    public void axpy(double scale, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += scale * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Applies the linear ReLU function in place to <code>values[from, to)</code>, storing the derivative of each
+     * activated value in <code>derivatives</code> unless it is null.
+     */
+    public void relu(double[] values, double[] derivatives, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double value = Math.max(0.0, values[i]);
+            values[i] = value;
+            if (derivatives != null)
+                derivatives[i] = Layer.linearDerive(value);
+        }
+    }
+
+    /**
+     * Applies the fast sigmoid approximation in place to <code>values[from, to)</code>, storing the derivative of
+     * each activated value in <code>derivatives</code> unless it is null.
+     */
+    public void sigmoid(double[] values, double[] derivatives, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double value = Layer.sigmoid(values[i]);
+            values[i] = value;
+            if (derivatives != null)
+                derivatives[i] = Layer.sigmoidDerive(value);
+        }
+    }
+
+    /**
+     * Applies a momentum step to <code>values[0, length)</code> in a single pass, and resets the gradients to 0. Each
+     * velocity becomes <code>momentum * velocity + scale * gradient</code>, and is added to its value, or with
+     * Nesterov's lookahead <code>momentum * velocity + scale * gradient</code> is added using the new velocity.
+     * @return The sum of the squared changes made to the values.
+     */
+    public double momentum(double[] values, double[] gradients, double[] velocity, int length, double scale,
+                           double momentum, boolean nesterov) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double step = scale * gradients[i];
+            double v = momentum * velocity[i] + step;
+            double change = nesterov ? momentum * v + step : v;
+            velocity[i] = v;
+            values[i] += change;
+            gradients[i] = 0.0;
+            sum += change * change;
+        }
+        return sum;
+    }
+
+    /**
+     * Applies an RMSProp step to <code>values[0, length)</code> in a single pass, and resets the gradients to 0. With
+     * <code>g = scale * gradient</code>, each mean square becomes <code>decay * square + (1 - decay) * g * g</code>,
+     * and <code>learningRate * g / (sqrt(square) + epsilon)</code> is added to its value.
+     * @return The sum of the squared changes made to the values.
+     */
+    public double rmsProp(double[] values, double[] gradients, double[] squares, int length, double scale,
+                          double learningRate, double decay, double epsilon) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double g = scale * gradients[i];
+            double square = decay * squares[i] + (1.0 - decay) * g * g;
+            double change = learningRate * g / (Math.sqrt(square) + epsilon);
+            squares[i] = square;
+            values[i] += change;
+            gradients[i] = 0.0;
+            sum += change * change;
+        }
+        return sum;
+    }
+
+    /**
+     * Applies an Adam step to <code>values[0, length)</code> in a single pass, and resets the gradients to 0. With
+     * <code>g = scale * gradient</code>, each moment becomes <code>beta1 * moment + (1 - beta1) * g</code>, each mean
+     * square <code>beta2 * square + (1 - beta2) * g * g</code>, and <code>stepSize * moment / (sqrt(square) +
+     * epsilon)</code> is added to its value. The bias correction of both averages is folded into stepSize.
+     * @return The sum of the squared changes made to the values.
+     */
+    public double adam(double[] values, double[] gradients, double[] moments, double[] squares, int length,
+                       double scale, double stepSize, double beta1, double beta2, double epsilon) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double g = scale * gradients[i];
+            double moment = beta1 * moments[i] + (1.0 - beta1) * g;
+            double square = beta2 * squares[i] + (1.0 - beta2) * g * g;
+            double change = stepSize * moment / (Math.sqrt(square) + epsilon);
+            moments[i] = moment;
+            squares[i] = square;
+            values[i] += change;
+            gradients[i] = 0.0;
+            sum += change * change;
+        }
+        return sum;
+    }
+
+    /**
+     * The single-precision version of dot(), accumulating in float.
+     */
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * The single-precision version of axpy().
+     */
+    public void axpy(float scale, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += scale * x[xOffset + i];
+        }
+    }
+
+    /**
+     * The single-precision version of relu().
+     */
+    public void relu(float[] values, float[] derivatives, int from, int to) {
+        for (int i = from; i < to; i++) {
+            float value = Math.max(0.0f, values[i]);
+            values[i] = value;
+            if (derivatives != null)
+                derivatives[i] = value > 0 ? 1.0f : 0.0f;
+        }
+    }
+
+    /**
+     * The single-precision version of sigmoid().
+     */
+    public void sigmoid(float[] values, float[] derivatives, int from, int to) {
+        for (int i = from; i < to; i++) {
+            float sum = values[i];
+            float value = 0.5f * (sum / (1 + Math.abs(sum))) + 0.5f;
+            values[i] = value;
+            if (derivatives != null) {
+                float x = 1 + Math.abs(value);
+                derivatives[i] = 1 / (2 * (x * x));
+            }
+        }
+    }
+
+    /**
+     * The int8 version of dot(), summing the products of each pair of bytes exactly as an int.
+     */
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * The off-heap version of dot(), reading <code>b</code> as doubles in the buffer's byte order.
+     * @param bIndex The index of <code>b</code>'s first double, not its byte offset.
+     */
+    public double dot(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b.getDouble((bIndex + i) << 3);
+        }
+        return sum;
+    }
+
+    /**
+     * The off-heap version of axpy(), reading <code>x</code> as doubles in the buffer's byte order.
+     * @param xIndex The index of <code>x</code>'s first double, not its byte offset.
+     */
+    public void axpy(double scale, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += scale * x.getDouble((xIndex + i) << 3);
+        }
+    }
+
+    /**
+     * The off-heap version of axpy(), updating <code>y</code> as doubles in the buffer's byte order.
+     * @param yIndex The index of <code>y</code>'s first double, not its byte offset.
+     */
+    public void axpy(double scale, double[] x, int xOffset, ByteBuffer y, int yIndex, int length) {
+        for (int i = 0; i < length; i++) {
+            int offset = (yIndex + i) << 3;
+            y.putDouble(offset, y.getDouble(offset) + scale * x[xOffset + i]);
+        }
+    }
+
+    private static Kernels load() {
+        if (!"scalar".equals(System.getProperty("network.kernels"))) {
+            try {
+                return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            } catch (Throwable e) {
+                // The Vector API is not available, so fall back to the scalar loops.
+            }
+        }
+        return new Kernels();
+    }
+}
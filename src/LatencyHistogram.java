@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of latencies in nanoseconds, in the style of an HDR histogram. Values below 128 are counted
+ * exactly, and every power of two above that is split into 64 linear buckets, so any recorded value is reported to
+ * within 1.6% across the whole range of a long, without allocating as values are recorded. It is not thread-safe.
+ */
+public class LatencyHistogram {
+    // The number of bits of each value kept exactly.
+    private static final int PRECISION_BITS = 7;
+    // The number of values counted exactly, 128.
+    private static final int EXACT = 1 << PRECISION_BITS;
+    // The number of buckets each power of two above EXACT is split into, 64.
+    private static final int HALF = EXACT / 2;
+
+    // The count of each bucket.
+    private final long[] counts = new long[EXACT + (64 - PRECISION_BITS) * HALF];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records a single latency.
+     * @param nanos The latency, negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds every latency recorded by another histogram to this one, e.g. to combine those of several threads.
+     * @param other The histogram to be added, which is left unchanged.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @param percentile The percentile, [0.0,100.0].
+     * @return The latency at or below which the given percentage of the recorded latencies fall, or 0 if none have
+     *         been recorded.
+     */
+    public long percentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Clears every recorded latency.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @return The bucket a value is counted in.
+     */
+    private static int index(long value) {
+        if (value < EXACT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (PRECISION_BITS - 1);
+        return EXACT + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * @return The largest value counted in a bucket.
+     */
+    private static long highest(int index) {
+        if (index < EXACT)
+            return index;
+        int shift = (index - EXACT) / HALF + 1;
+        long bucket = (index - EXACT) % HALF + HALF;
+        return ((bucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d | mean %.0fns | p50 %dns | p90 %dns | p99 %dns | p99.9 %dns | max %dns", count,
+                mean(), percentile(50), percentile(90), percentile(99), percentile(99.9), max);
+    }
+}
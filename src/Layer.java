@@ -0,0 +1,471 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A single layer of a NeuralNetwork, stored as flat primitive arrays. The incoming weights of the layer are kept as
+ * one contiguous row-major matrix, where row <code>n</code> holds the weights from every neuron of the previous layer
+ * to neuron <code>n</code> of this layer.
+ */
+public class Layer {
+    // The number of neurons in this layer.
+    public final int size;
+    // The number of neurons in the previous layer, which is also the length of each weight row.
+    public final int inputs;
+    // The weights from the previous layer, row-major [size][inputs].
+    public double[] weights;
+    // The weight for a 1.0 bias of each neuron.
+    public double[] biases;
+    // The value of each neuron.
+    public double[] values;
+    // The derived value of each neuron.
+    public double[] derivatives;
+    // The error of each neuron for the last example.
+    public double[] errors;
+    // The current learning rate of each neuron, as used by backProp().
+    public double[] learningRates;
+    // The weight gradients summed by sumError(), row-major [size][inputs].
+    public double[] weightGradients;
+    // The bias gradients summed by sumError().
+    public double[] biasGradients;
+    // The activation function being used.
+    public int activationFunction;
+    // Which weights survived pruning, row-major [size][inputs], or null if the layer has not been pruned.
+    public boolean[] mask;
+
+    /**
+     * Initializes the Layer.
+     * @param size               The number of neurons in the layer.
+     * @param inputs             The number of neurons in the previous layer, 0 for the input layer.
+     * @param activationFunction The activation function to be used.
+     *                           1 - Linear
+     *                           2 - Sigmoid
+     *                           3 - None
+     * @param learningRate       The starting learning rate of each neuron.
+     */
+    public Layer(int size, int inputs, int activationFunction, double learningRate) {
+        this.size = size;
+        this.inputs = inputs;
+        this.activationFunction = activationFunction;
+        weights = new double[size * inputs];
+        biases = new double[size];
+        values = new double[size];
+        derivatives = new double[size];
+        errors = new double[size];
+        learningRates = new double[size];
+        weightGradients = new double[size * inputs];
+        biasGradients = new double[size];
+        Arrays.fill(learningRates, learningRate);
+    }
+
+    /**
+     * Initializes a copy of the layer, including its weights, biases and any summed gradients.
+     * @param parent The layer to be copied from.
+     */
+    public Layer(Layer parent) {
+        size = parent.size;
+        inputs = parent.inputs;
+        activationFunction = parent.activationFunction;
+        weights = parent.weights.clone();
+        biases = parent.biases.clone();
+        values = parent.values.clone();
+        derivatives = parent.derivatives.clone();
+        errors = parent.errors.clone();
+        learningRates = parent.learningRates.clone();
+        weightGradients = parent.weightGradients.clone();
+        biasGradients = parent.biasGradients.clone();
+        mask = parent.mask == null ? null : parent.mask.clone();
+    }
+
+    /**
+     * Establishes random weights and biases for this layer, [-1.0,1.0]. Pruned weights stay zero.
+     * @param random The source of randomness.
+     */
+    public void initialize(Random random) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (random.nextDouble() - 0.5) * 2.0;
+        }
+        for (int n = 0; n < size; n++) {
+            biases[n] = (random.nextDouble() - 0.5) * 2.0;
+        }
+        Arrays.fill(errors, 0.0);
+        Arrays.fill(derivatives, 0.0);
+        Arrays.fill(weightGradients, 0.0);
+        Arrays.fill(biasGradients, 0.0);
+        applyMask();
+    }
+
+    /**
+     * Prunes every weight whose magnitude is below the threshold, zeroing it and removing it from the mask so that it
+     * stays zero through any further training.
+     * @param threshold The smallest magnitude of weight to keep.
+     * @return The number of weights pruned from the layer, including any pruned before.
+     */
+    public int prune(double threshold) {
+        if (mask == null) {
+            mask = new boolean[weights.length];
+            Arrays.fill(mask, true);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            if (Math.abs(weights[i]) < threshold)
+                mask[i] = false;
+        }
+        applyMask();
+        return weights.length - keptWeights();
+    }
+
+    /**
+     * Prunes the smallest weights of the layer until the given fraction of them are pruned. Weights of equal
+     * magnitude are pruned or kept together, so slightly fewer may be pruned.
+     * @param sparsity The fraction of weights to prune, [0.0,1.0].
+     * @return The number of weights pruned from the layer, including any pruned before.
+     */
+    public int pruneToSparsity(double sparsity) {
+        if (sparsity < 0.0 || sparsity > 1.0) {
+            throw new IllegalArgumentException("Error: Expected a sparsity between 0 and 1, got " + sparsity);
+        }
+        int count = (int) Math.floor(sparsity * weights.length);
+        if (count == 0)
+            return prune(0.0);
+        if (count == weights.length)
+            return prune(Double.POSITIVE_INFINITY);
+        double[] magnitudes = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            magnitudes[i] = mask != null && !mask[i] ? 0.0 : Math.abs(weights[i]);
+        }
+        Arrays.sort(magnitudes);
+        return prune(magnitudes[count]);
+    }
+
+    /**
+     * Zeroes every weight removed from the mask, if the layer has been pruned.
+     */
+    public void applyMask() {
+        if (mask == null)
+            return;
+        for (int i = 0; i < weights.length; i++) {
+            if (!mask[i])
+                weights[i] = 0.0;
+        }
+    }
+
+    /**
+     * Zeroes every weight removed from the mask within the given weight columns, if the layer has been pruned, for
+     * after an update that only touched those columns.
+     * @param columns The distinct weight columns that were updated.
+     * @param count   The number of columns.
+     */
+    public void applyMask(int[] columns, int count) {
+        if (mask == null)
+            return;
+        for (int n = 0; n < size; n++) {
+            int row = n * inputs;
+            for (int k = 0; k < count; k++) {
+                int i = row + columns[k];
+                if (!mask[i])
+                    weights[i] = 0.0;
+            }
+        }
+    }
+
+    /**
+     * @return The number of weights not removed by pruning.
+     */
+    public int keptWeights() {
+        if (mask == null)
+            return weights.length;
+        int kept = 0;
+        for (boolean keep : mask) {
+            if (keep)
+                kept++;
+        }
+        return kept;
+    }
+
+    /**
+     * Calculates the value and derivative of each neuron from the values of the previous layer.
+     * @param lastValues The values of the previous layer.
+     */
+    public void calculate(double[] lastValues) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int n = 0; n < size; n++) {
+            // Including our bias here, which is our bias * 1.0.
+            values[n] = biases[n] + kernels.dot(lastValues, 0, weights, n * inputs, inputs);
+        }
+        activate(values, derivatives, 0, size);
+    }
+
+    /**
+     * Calculates the value of each neuron into <code>values</code> without touching any of the layer's own state, so
+     * any number of threads may call it at once.
+     * @param lastValues The values of the previous layer.
+     * @param values     The array to store this layer's values into.
+     */
+    public void predict(double[] lastValues, double[] values) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int n = 0; n < size; n++) {
+            values[n] = biases[n] + kernels.dot(lastValues, 0, weights, n * inputs, inputs);
+        }
+        activate(values, 0, size);
+    }
+
+    /**
+     * Calculates the value and derivative of each neuron from a sparse previous layer, touching only the weight columns
+     * of its non-zero values.
+     * @param lastIndices The distinct indices of the previous layer's non-zero values.
+     * @param lastValues  The value at each of those indices.
+     * @param count       The number of non-zero values.
+     */
+    public void calculateSparse(int[] lastIndices, double[] lastValues, int count) {
+        sumSparse(lastIndices, lastValues, count, values);
+        activate(values, derivatives, 0, size);
+    }
+
+    /**
+     * Calculates the value of each neuron from a sparse previous layer into <code>values</code>, without touching any
+     * of the layer's own state.
+     * @param lastIndices The distinct indices of the previous layer's non-zero values.
+     * @param lastValues  The value at each of those indices.
+     * @param count       The number of non-zero values.
+     * @param values      The array to store this layer's values into.
+     */
+    public void predictSparse(int[] lastIndices, double[] lastValues, int count, double[] values) {
+        sumSparse(lastIndices, lastValues, count, values);
+        activate(values, 0, size);
+    }
+
+    /**
+     * Stores the bias plus the weighted sum of a sparse previous layer of each neuron into <code>values</code>, adding
+     * in the same order as calculate() so sorted indices give the same result as dense inputs.
+     */
+    private void sumSparse(int[] lastIndices, double[] lastValues, int count, double[] values) {
+        for (int n = 0; n < size; n++) {
+            int row = n * inputs;
+            double sum = 0.0;
+            for (int k = 0; k < count; k++) {
+                sum += lastValues[k] * weights[row + lastIndices[k]];
+            }
+            values[n] = biases[n] + sum;
+        }
+    }
+
+    /**
+     * Applies the activation function in place to <code>values[from, to)</code>.
+     * @param values The summed inputs, which are replaced by the activated values.
+     * @param from   The first index to activate.
+     * @param to     The index after the last one to activate.
+     */
+    public void activate(double[] values, int from, int to) {
+        switch (activationFunction) {
+            case 1 -> Kernels.INSTANCE.relu(values, null, from, to);
+            case 2 -> Kernels.INSTANCE.sigmoid(values, null, from, to);
+            case 3 -> {}
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        }
+    }
+
+    /**
+     * Applies the activation function in place to <code>values[from, to)</code> and stores the derivative of each
+     * activated value in <code>derivatives</code>.
+     * @param values      The summed inputs, which are replaced by the activated values.
+     * @param derivatives The array to store the derivatives into.
+     * @param from        The first index to activate.
+     * @param to          The index after the last one to activate.
+     */
+    public void activate(double[] values, double[] derivatives, int from, int to) {
+        switch (activationFunction) {
+            case 1 -> Kernels.INSTANCE.relu(values, derivatives, from, to);
+            case 2 -> Kernels.INSTANCE.sigmoid(values, derivatives, from, to);
+            case 3 -> Arrays.fill(derivatives, from, to, 1.0);
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        }
+    }
+
+    /**
+     * Uses the derivative of the layer's activation function on the given value.
+     * @param sum The value to be derived.
+     * @return The derivative of the activation function at <code>sum</code>.
+     */
+    public double getDerivative(double sum) {
+        return switch (activationFunction) {
+            case 1 -> linearDerive(sum);
+            case 2 -> sigmoidDerive(sum);
+            case 3 -> 1;
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        };
+    }
+
+    public static double sigmoidDerive(double sum) {
+        double x = 1 + Math.abs(sum);
+        return 1 / (2 * (x * x));
+    }
+
+    public static double linearDerive(double sum) {
+        if (sum > 0) return 1;
+        return 0;
+    }
+
+    /**
+     * An efficient approximation of a sigmoid function, from -1.0 to 0.1, it also outputs negatives.
+     * @param value The value to be altered.
+     * @return Roughly equivalent to a sigmoid of <code>value</code>.
+     */
+    public static double sigmoid(double value) {
+        return 0.5 * (value / (1 + Math.abs(value))) + 0.5;
+    }
+
+    /**
+     * Computes this layer's errors from the errors of the next layer, i.e. the transposed weights of
+     * <code>next</code> multiplied by its errors, scaled by this layer's derivatives.
+     * @param next The layer after this one, whose errors are already computed.
+     */
+    public void backPropagateErrors(Layer next) {
+        sumErrors(next);
+        for (int j = 0; j < size; j++) {
+            errors[j] *= derivatives[j];
+        }
+    }
+
+    /**
+     * Stores the transposed weights of <code>next</code> multiplied by its errors into this layer's errors, without
+     * applying this layer's derivatives.
+     * @param next The layer after this one, whose errors are already computed.
+     */
+    public void sumErrors(Layer next) {
+        Kernels kernels = Kernels.INSTANCE;
+        Arrays.fill(errors, 0.0);
+        for (int k = 0; k < next.size; k++) {
+            kernels.axpy(next.errors[k], next.weights, k * size, errors, 0, size);
+        }
+    }
+
+    /**
+     * Adds the gradients of the last example to the summed weight and bias gradients.
+     * @param lastValues The values of the previous layer for that example.
+     */
+    public void sumGradients(double[] lastValues) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int n = 0; n < size; n++) {
+            biasGradients[n] += errors[n];
+            kernels.axpy(errors[n], lastValues, 0, weightGradients, n * inputs, inputs);
+        }
+    }
+
+    /**
+     * Adds the gradients of the last example to the summed weight and bias gradients, for a sparse previous layer, so
+     * only the weight columns of its non-zero values are touched.
+     * @param lastIndices The distinct indices of the previous layer's non-zero values for that example.
+     * @param lastValues  The value at each of those indices.
+     * @param count       The number of non-zero values.
+     */
+    public void sumGradientsSparse(int[] lastIndices, double[] lastValues, int count) {
+        for (int n = 0; n < size; n++) {
+            double error = errors[n];
+            int row = n * inputs;
+            biasGradients[n] += error;
+            for (int k = 0; k < count; k++) {
+                weightGradients[row + lastIndices[k]] += error * lastValues[k];
+            }
+        }
+    }
+
+    /**
+     * Applies the summed gradients to the weights and biases, and then resets them.
+     * @param scale The factor the gradients are multiplied by, usually learningRate / examples.
+     */
+    public void applyGradients(double scale) {
+        applyGradients(scale, weightGradients, biasGradients);
+    }
+
+    /**
+     * Applies the given gradients to the weights and biases, and then resets them. Pruned weights stay zero.
+     * @param scale           The factor the gradients are multiplied by, usually learningRate / examples.
+     * @param weightGradients The summed weight gradients, row-major [size][inputs].
+     * @param biasGradients   The summed bias gradients.
+     */
+    public void applyGradients(double scale, double[] weightGradients, double[] biasGradients) {
+        Kernels kernels = Kernels.INSTANCE;
+        kernels.axpy(scale, biasGradients, 0, biases, 0, size);
+        // One row at a time, as backProp() does. A single loop over the whole matrix boxes its vectors on the heap with
+        // the vector backend, allocating for every weight.
+        for (int n = 0; n < size; n++) {
+            kernels.axpy(scale, weightGradients, n * inputs, weights, n * inputs, inputs);
+        }
+        Arrays.fill(biasGradients, 0.0);
+        Arrays.fill(weightGradients, 0.0);
+        applyMask();
+    }
+
+    /**
+     * Applies the summed gradients as applyGradients(double) does, when only the given weight columns were summed
+     * into, e.g. by sumGradientsSparse(), so only those columns are touched and reset.
+     * @param scale   The factor the gradients are multiplied by, usually learningRate / examples.
+     * @param columns The distinct weight columns that may hold non-zero gradients.
+     * @param count   The number of columns.
+     */
+    public void applyGradientsSparse(double scale, int[] columns, int count) {
+        Kernels.INSTANCE.axpy(scale, biasGradients, 0, biases, 0, size);
+        Arrays.fill(biasGradients, 0.0);
+        for (int n = 0; n < size; n++) {
+            int row = n * inputs;
+            for (int k = 0; k < count; k++) {
+                int i = row + columns[k];
+                weights[i] += scale * weightGradients[i];
+                weightGradients[i] = 0.0;
+            }
+        }
+        applyMask(columns, count);
+    }
+
+    /**
+     * Calculates the values and derivatives of a whole batch at once, one row per sample.
+     * @param lastValues  The values of the previous layer, [count][inputs].
+     * @param values      The array to store this layer's values into, [count][size].
+     * @param derivatives The array to store this layer's derivatives into, [count][size].
+     * @param count       The number of samples in the batch.
+     */
+    public void calculateBatch(double[] lastValues, double[] values, double[] derivatives, int count) {
+        MatrixMath.multiplyTransposed(lastValues, weights, values, count, size, inputs);
+        for (int sample = 0; sample < count; sample++) {
+            int row = sample * size;
+            for (int n = 0; n < size; n++) {
+                values[row + n] += biases[n];
+            }
+        }
+        activate(values, derivatives, 0, count * size);
+    }
+
+    /**
+     * Computes this layer's errors for a whole batch from the errors of the next layer, one row per sample.
+     * @param next        The layer after this one.
+     * @param nextErrors  The errors of the next layer, [count][next.size].
+     * @param errors      The array to store this layer's errors into, [count][size].
+     * @param derivatives This layer's derivatives, [count][size].
+     * @param count       The number of samples in the batch.
+     */
+    public void backPropagateErrorsBatch(Layer next, double[] nextErrors, double[] errors, double[] derivatives,
+                                         int count) {
+        MatrixMath.multiply(nextErrors, next.weights, errors, count, size, next.size);
+        for (int i = 0; i < count * size; i++) {
+            errors[i] *= derivatives[i];
+        }
+    }
+
+    /**
+     * Adds the gradients of a whole batch to the given weight and bias gradients.
+     * @param errors          This layer's errors, [count][size].
+     * @param lastValues      The values of the previous layer, [count][inputs].
+     * @param count           The number of samples in the batch.
+     * @param weightGradients The weight gradients to add to, row-major [size][inputs].
+     * @param biasGradients   The bias gradients to add to.
+     */
+    public void sumGradientsBatch(double[] errors, double[] lastValues, int count, double[] weightGradients,
+                                  double[] biasGradients) {
+        MatrixMath.multiplyTransposedAdd(errors, lastValues, weightGradients, size, inputs, count);
+        for (int sample = 0; sample < count; sample++) {
+            int row = sample * size;
+            for (int n = 0; n < size; n++) {
+                biasGradients[n] += errors[row + n];
+            }
+        }
+    }
+}
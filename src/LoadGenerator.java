@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates load against an InferenceServer from a number of concurrent connections, each sending random inputs one
+ * request after another, and reports the throughput and the latency seen by the clients.
+ * <pre>
+ * java LoadGenerator &lt;port | shape&gt; [connections] [seconds] [max batch size] [max wait in microseconds]
+ * </pre>
+ * Given a port, the load is sent to a server already listening on it. Given a network shape such as 64-128-10, a
+ * server for a random network of that shape is started in the same process, using the batch size and wait, and its
+ * own statistics are reported as well.
+ */
+public class LoadGenerator {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java LoadGenerator <port | shape> [connections] [seconds] [max batch size] " +
+                    "[max wait us]");
+            System.exit(1);
+        }
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        int maxBatchSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        long maxWait = args.length > 4 ? Long.parseLong(args[4]) : 200;
+
+        InferenceServer server = null;
+        int port;
+        int inputs;
+        int outputs;
+        if (args[0].contains("-")) {
+            NeuralNetwork network = NetworkBenchmark.network(args[0]);
+            server = new InferenceServer(network, 0, maxBatchSize, maxWait * 1000);
+            port = server.getPort();
+            inputs = network.network[0].size;
+            outputs = network.network[network.layers - 1].size;
+        } else {
+            port = Integer.parseInt(args[0]);
+            try (InferenceClient client = new InferenceClient("localhost", port)) {
+                int[] shape = client.shape();
+                inputs = shape[0];
+                outputs = shape[1];
+            }
+        }
+
+        try {
+            // Warm up the server and clients before measuring.
+            run(port, inputs, outputs, connections, Math.min(2, seconds), 0);
+            if (server != null)
+                server.resetStatistics();
+            run(port, inputs, outputs, connections, seconds, 1);
+            if (server != null)
+                System.out.println("Server: " + server);
+        } finally {
+            if (server != null)
+                server.close();
+        }
+    }
+
+    /**
+     * Sends requests from every connection for the given time.
+     */
+    private static void run(int port, int inputs, int outputs, int connections, long seconds, long seed)
+            throws Exception {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        LatencyHistogram[] histograms = new LatencyHistogram[connections];
+        Exception[] failures = new Exception[connections];
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            histograms[c] = new LatencyHistogram();
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed * connections + connection);
+                double[] in = new double[inputs];
+                try (InferenceClient client = new InferenceClient("localhost", port)) {
+                    double[] out = new double[outputs];
+                    while (System.nanoTime() < end) {
+                        for (int i = 0; i < inputs; i++) {
+                            in[i] = random.nextDouble();
+                        }
+                        long start = System.nanoTime();
+                        client.predict(in, out);
+                        histograms[connection].record(System.nanoTime() - start);
+                    }
+                } catch (Exception e) {
+                    failures[connection] = e;
+                }
+            }, "LoadGenerator-" + c);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Exception failure : failures) {
+            if (failure != null)
+                throw failure;
+        }
+
+        if (seed == 0)
+            return;
+        LatencyHistogram latency = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            latency.add(histogram);
+        }
+        System.out.printf("Connections: %d | Requests: %d | Throughput: %.0f/s%n", connections, latency.count(),
+                latency.count() / (double) seconds);
+        System.out.println("Client latency: " + latency);
+    }
+}
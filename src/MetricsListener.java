@@ -0,0 +1,95 @@
+/**
+ * Receives timings and training statistics from a NeuralNetwork, set with setMetricsListener(). When no listener is
+ * set the network skips all of its timing, so instrumentation costs nothing unless it is used. Every method does
+ * nothing by default, so a listener only overrides what it needs.
+ * <p>
+ * A ParallelTrainer calls layerForward() and layerBackward() from each of its threads at once, so a listener used
+ * with one must be thread-safe.
+ */
+public interface MetricsListener {
+    /**
+     * Called after a layer has been calculated during training or calculate().
+     * @param layer   The index of the layer.
+     * @param samples The number of samples calculated at once, greater than 1 for batches.
+     * @param nanos   The time taken.
+     */
+    default void layerForward(int layer, int samples, long nanos) {}
+
+    /**
+     * Called after a layer has propagated its errors to the layer below and updated or summed its own gradients.
+     * @param layer   The index of the layer.
+     * @param samples The number of samples propagated at once, greater than 1 for batches.
+     * @param nanos   The time taken.
+     */
+    default void layerBackward(int layer, int samples, long nanos) {}
+
+    /**
+     * Called after the weights have been updated, by backProp(), backPropSumError(), trainBatch() or a
+     * ParallelTrainer.
+     * @param samples The number of examples in the update.
+     * @param nanos   The time taken from the first example until the weights were updated.
+     * @param loss    The mean squared error of the examples, before the update.
+     */
+    default void batchCompleted(int samples, long nanos, double loss) {}
+
+    /**
+     * Called after calculate(double[], double[]), predict() or calculateBatch().
+     * @param samples The number of samples calculated.
+     * @param nanos   The time taken.
+     */
+    default void inferenceCompleted(int samples, long nanos) {}
+
+    /**
+     * Called as the weights of a layer are updated.
+     * @param layer     The index of the layer.
+     * @param magnitude The euclidean norm of the change made to the layer's weights and biases.
+     */
+    default void weightsUpdated(int layer, double magnitude) {}
+
+    /**
+     * Called by endEpoch().
+     * @param epoch   The index of the epoch that ended, starting from 0.
+     * @param samples The number of examples trained on during the epoch.
+     * @param loss    The mean squared error of those examples.
+     */
+    default void epochCompleted(int epoch, long samples, double loss) {}
+
+    /**
+     * @param listeners The listeners to be combined.
+     * @return A listener passing every call on to each of the given listeners, in order.
+     */
+    static MetricsListener of(MetricsListener... listeners) {
+        MetricsListener[] all = listeners.clone();
+        return new MetricsListener() {
+            @Override
+            public void layerForward(int layer, int samples, long nanos) {
+                for (MetricsListener listener : all) listener.layerForward(layer, samples, nanos);
+            }
+
+            @Override
+            public void layerBackward(int layer, int samples, long nanos) {
+                for (MetricsListener listener : all) listener.layerBackward(layer, samples, nanos);
+            }
+
+            @Override
+            public void batchCompleted(int samples, long nanos, double loss) {
+                for (MetricsListener listener : all) listener.batchCompleted(samples, nanos, loss);
+            }
+
+            @Override
+            public void inferenceCompleted(int samples, long nanos) {
+                for (MetricsListener listener : all) listener.inferenceCompleted(samples, nanos);
+            }
+
+            @Override
+            public void weightsUpdated(int layer, double magnitude) {
+                for (MetricsListener listener : all) listener.weightsUpdated(layer, magnitude);
+            }
+
+            @Override
+            public void epochCompleted(int epoch, long samples, double loss) {
+                for (MetricsListener listener : all) listener.epochCompleted(epoch, samples, loss);
+            }
+        };
+    }
+}
@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the binary model format. Every value is little-endian, and every block starts on an 8 byte boundary
+ * so it can be viewed directly as a DoubleBuffer once the file is memory-mapped.
+ * <pre>
+ * int    magic         'MLJN'
+ * int    version       1, or 2 if any layer is pruned
+ * int    layers
+ * int    reserved      0
+ * double learningRate
+ * version 1: layers * (int size, int activationFunction)
+ * version 2: layers * (int size, int activationFunction, int format, int kept)
+ * layers * (double[size] biases, double[size * previous size] weights)     format 0, dense
+ *        | (double[size] biases, double[kept] weights,
+ *           int[size + 1] rowOffsets, int[kept] columns, padding to 8 bytes) format 1, compressed sparse rows
+ * </pre>
+ * A pruned layer is stored as compressed sparse rows: the kept weights of row <code>n</code> are
+ * <code>weights[rowOffsets[n], rowOffsets[n + 1])</code>, and <code>columns</code> holds the input index of each.
+ */
+public class ModelFile {
+    public static final int MAGIC = 0x4E4A4C4D;
+    public static final int VERSION = 2;
+    // The format of a layer stored in full.
+    public static final int DENSE = 0;
+    // The format of a pruned layer stored as compressed sparse rows.
+    public static final int SPARSE = 1;
+    // The size of the fixed part of the header, before the per-layer entries.
+    static final int HEADER = 24;
+    // The size of the buffer each block is streamed through when writing.
+    private static final int CHUNK = 1 << 16;
+
+    /**
+     * Writes the given layers to a binary model file, replacing it if it exists.
+     * @param path         The file to be written to.
+     * @param network      The layers of the network, starting with the input layer.
+     * @param learningRate The learning rate of the network.
+     * @throws IOException Thrown if the file cannot be written.
+     */
+    public static void write(Path path, Layer[] network, double learningRate) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, network, learningRate);
+        }
+    }
+
+    /**
+     * Writes the given layers in the binary model format from the channel's current position.
+     */
+    static void write(FileChannel channel, Layer[] network, double learningRate) throws IOException {
+        int[] sizes = new int[network.length];
+        int[] activationFunctions = new int[network.length];
+        double[][] weights = new double[network.length][];
+        double[][] biases = new double[network.length][];
+        boolean[][] masks = new boolean[network.length][];
+        for (int layer = 0; layer < network.length; layer++) {
+            sizes[layer] = network[layer].size;
+            activationFunctions[layer] = network[layer].activationFunction;
+            weights[layer] = network[layer].weights;
+            biases[layer] = network[layer].biases;
+            masks[layer] = network[layer].mask;
+        }
+        write(channel, sizes, activationFunctions, weights, biases, masks, learningRate);
+    }
+
+    /**
+     * Writes a network given as the plain arrays of each layer in the binary model format from the channel's current
+     * position, so a copy of just the weights, e.g. a checkpoint's, can be written without building Layers.
+     * @param sizes               The size of each layer, starting with the input layer.
+     * @param activationFunctions The activation function of each layer.
+     * @param weights             The weights of each layer, row-major [size][previous size].
+     * @param biases              The biases of each layer.
+     * @param masks               The mask of each layer, or null for layers that have not been pruned.
+     */
+    static void write(FileChannel channel, int[] sizes, int[] activationFunctions, double[][] weights,
+                      double[][] biases, boolean[][] masks, double learningRate) throws IOException {
+        int layers = sizes.length;
+        // Only pruned networks need the second version, so others stay readable by older versions.
+        int version = 1;
+        int[] kept = new int[layers];
+        for (int layer = 0; layer < layers; layer++) {
+            kept[layer] = weights[layer].length;
+            if (masks[layer] == null)
+                continue;
+            version = 2;
+            kept[layer] = 0;
+            for (boolean keep : masks[layer]) {
+                if (keep)
+                    kept[layer]++;
+            }
+        }
+        int entry = entrySize(version);
+        ByteBuffer header = ByteBuffer.allocate(HEADER + entry * layers).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(version).putInt(layers).putInt(0).putDouble(learningRate);
+        for (int layer = 0; layer < layers; layer++) {
+            header.putInt(sizes[layer]).putInt(activationFunctions[layer]);
+            if (version > 1)
+                header.putInt(masks[layer] == null ? DENSE : SPARSE).putInt(kept[layer]);
+        }
+        header.flip();
+        writeFully(channel, header);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        for (int layer = 0; layer < layers; layer++) {
+            int size = sizes[layer];
+            int inputs = layer == 0 ? 0 : sizes[layer - 1];
+            boolean[] mask = masks[layer];
+            writeDoubles(channel, buffer, biases[layer], size);
+            if (mask == null) {
+                writeDoubles(channel, buffer, weights[layer], weights[layer].length);
+                continue;
+            }
+            // Gather the kept weights of each row.
+            double[] keptWeights = new double[kept[layer]];
+            int[] rowOffsets = new int[size + 1];
+            int[] columns = new int[kept[layer]];
+            int count = 0;
+            for (int n = 0; n < size; n++) {
+                int row = n * inputs;
+                for (int i = 0; i < inputs; i++) {
+                    if (mask[row + i]) {
+                        keptWeights[count] = weights[layer][row + i];
+                        columns[count++] = i;
+                    }
+                }
+                rowOffsets[n + 1] = count;
+            }
+            writeDoubles(channel, buffer, keptWeights, count);
+            writeInts(channel, buffer, rowOffsets, rowOffsets.length);
+            writeInts(channel, buffer, columns, count);
+            if (((rowOffsets.length + count) & 1) == 1)
+                writeFully(channel, ByteBuffer.allocate(4));
+        }
+    }
+
+    /**
+     * Memory-maps a binary model file and bulk copies each block into a new set of layers.
+     * @param path         The file to be read from.
+     * @param learningRate The starting learning rate of each neuron.
+     * @return The layers stored in the file.
+     * @throws IOException Thrown if the file cannot be read or is not a valid model file.
+     */
+    public static Layer[] read(Path path, double learningRate) throws IOException {
+        return read(map(path), path, learningRate);
+    }
+
+    /**
+     * Reads a whole binary model file as a NeuralNetwork, using the learning rate stored in the file.
+     * @param path         The file to be read from.
+     * @return The stored network.
+     * @throws IOException Thrown if the file cannot be read or is not a valid model file.
+     */
+    public static NeuralNetwork load(Path path) throws IOException {
+        MappedByteBuffer buffer = map(path);
+        checkHeader(buffer, path);
+        double learningRate = buffer.getDouble(16);
+        return new NeuralNetwork(read(buffer, path, learningRate), learningRate);
+    }
+
+    static Layer[] read(ByteBuffer buffer, Path path, double learningRate) throws IOException {
+        int count = checkHeader(buffer, path);
+        int entry = entrySize(buffer.getInt(4));
+        Layer[] network = new Layer[count];
+        int position = HEADER + entry * count;
+        for (int layer = 0; layer < count; layer++) {
+            int offset = HEADER + entry * layer;
+            int size = buffer.getInt(offset);
+            int activationFunction = buffer.getInt(offset + 4);
+            int format = entry > 8 ? buffer.getInt(offset + 8) : DENSE;
+            int inputs = layer == 0 ? 0 : network[layer - 1].size;
+            checkLayer(size, inputs, activationFunction, layer, path);
+            Layer current = new Layer(size, inputs, activationFunction, learningRate);
+            network[layer] = current;
+            position = readDoubles(buffer, position, current.biases, path);
+            if (format == DENSE) {
+                position = readDoubles(buffer, position, current.weights, path);
+                continue;
+            }
+            if (format != SPARSE) {
+                throw new IOException("Error: Unknown layer format " + format + " in " + path);
+            }
+
+            // Scatter the kept weights of each row back into the full matrix.
+            int kept = checkKept(buffer.getInt(offset + 12), size, inputs, path);
+            double[] weights = new double[kept];
+            int[] rowOffsets = new int[size + 1];
+            int[] columns = new int[kept];
+            position = readSparse(buffer, position, weights, rowOffsets, columns, inputs, path);
+            current.mask = new boolean[current.weights.length];
+            for (int n = 0; n < size; n++) {
+                for (int k = rowOffsets[n]; k < rowOffsets[n + 1]; k++) {
+                    current.weights[n * inputs + columns[k]] = weights[k];
+                    current.mask[n * inputs + columns[k]] = true;
+                }
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Checks the size and activation function of a layer's header entry.
+     */
+    static void checkLayer(int size, int inputs, int activationFunction, int layer, Path path) throws IOException {
+        if (size < 1 || (long) size * inputs > Integer.MAX_VALUE) {
+            throw new IOException("Error: Invalid size " + size + " of layer " + layer + " in " + path);
+        }
+        if (activationFunction < 1 || activationFunction > 3) {
+            throw new IOException("Error: Invalid activation function " + activationFunction + " of layer " +
+                    layer + " in " + path);
+        }
+    }
+
+    /**
+     * Checks the number of kept weights of a pruned layer's header entry.
+     * @return The number of kept weights.
+     */
+    static int checkKept(int kept, int size, int inputs, Path path) throws IOException {
+        if (kept < 0 || kept > size * inputs) {
+            throw new IOException("Error: Invalid number of kept weights " + kept + " in " + path);
+        }
+        return kept;
+    }
+
+    /**
+     * Bulk copies the compressed sparse rows of a pruned layer starting at <code>position</code>, checking that every
+     * row offset and column is in range.
+     * @return The position after the block, including its padding.
+     */
+    static int readSparse(ByteBuffer buffer, int position, double[] weights, int[] rowOffsets, int[] columns,
+                          int inputs, Path path) throws IOException {
+        position = readDoubles(buffer, position, weights, path);
+        position = readInts(buffer, position, rowOffsets, path);
+        position = readInts(buffer, position, columns, path);
+        for (int n = 0; n < rowOffsets.length - 1; n++) {
+            if (rowOffsets[n] < 0 || rowOffsets[n] > rowOffsets[n + 1] || rowOffsets[n + 1] > weights.length) {
+                throw new IOException("Error: Invalid row offsets in " + path);
+            }
+            for (int k = rowOffsets[n]; k < rowOffsets[n + 1]; k++) {
+                if (columns[k] < 0 || columns[k] >= inputs) {
+                    throw new IOException("Error: Invalid column " + columns[k] + " in " + path);
+                }
+            }
+        }
+        return position + ((rowOffsets.length + columns.length) & 1) * 4;
+    }
+
+    /**
+     * @return The size of each per-layer header entry in the given version.
+     */
+    static int entrySize(int version) {
+        return version == 1 ? 8 : 16;
+    }
+
+    /**
+     * Converts a text file written by NeuralNetwork.saveToFile() to the binary model format.
+     * @param textFile     The text file to be read from.
+     * @param binaryFile   The binary file to be written to.
+     * @param learningRate The learning rate to store, as the text format does not keep one.
+     * @throws IOException Thrown if either file cannot be accessed.
+     */
+    public static void convert(Path textFile, Path binaryFile, double learningRate) throws IOException {
+        write(binaryFile, NeuralNetwork.readText(textFile.toString(), learningRate), learningRate);
+    }
+
+    /**
+     * Converts a text model to a binary one from the command line.
+     * Usage: java ModelFile &lt;text file&gt; &lt;binary file&gt; [learning rate]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java ModelFile <text file> <binary file> [learning rate]");
+            System.exit(1);
+        }
+        double learningRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.0;
+        convert(Path.of(args[0]), Path.of(args[1]), learningRate);
+    }
+
+    /**
+     * Memory-maps the whole of the given file read-only, in little-endian order.
+     * @throws IOException Thrown if the file cannot be read, or is larger than a single mapping can hold.
+     */
+    static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Error: " + path + " is larger than 2 GB, too large to be mapped whole; use " +
+                        "OffHeapNetwork.map() for dense models this large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    /**
+     * Checks the magic and version of a mapped model file.
+     * @return The number of layers in the file.
+     */
+    static int checkHeader(ByteBuffer buffer, Path path) throws IOException {
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Error: " + path + " is not a model file");
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Error: Unsupported model file version " + version + " in " + path);
+        }
+        int count = buffer.getInt(8);
+        if (count < 2 || buffer.capacity() < HEADER + (long) entrySize(version) * count) {
+            throw new IOException("Error: Truncated model file " + path);
+        }
+        return count;
+    }
+
+    /**
+     * Bulk copies <code>values.length</code> doubles starting at <code>position</code> into <code>values</code>.
+     * @return The position after the copied block.
+     */
+    static int readDoubles(ByteBuffer buffer, int position, double[] values, Path path) throws IOException {
+        if ((long) position + 8L * values.length > buffer.capacity()) {
+            throw new IOException("Error: Truncated model file " + path);
+        }
+        DoubleBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        view.get(values);
+        return position + 8 * values.length;
+    }
+
+    /**
+     * Bulk copies <code>values.length</code> ints starting at <code>position</code> into <code>values</code>.
+     * @return The position after the copied block.
+     */
+    private static int readInts(ByteBuffer buffer, int position, int[] values, Path path) throws IOException {
+        if ((long) position + 4L * values.length > buffer.capacity()) {
+            throw new IOException("Error: Truncated model file " + path);
+        }
+        IntBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        view.get(values);
+        return position + 4 * values.length;
+    }
+
+    /**
+     * Streams the first <code>length</code> ints of <code>values</code> to the channel through <code>buffer</code>.
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length)
+            throws IOException {
+        IntBuffer view = buffer.clear().asIntBuffer();
+        for (int offset = 0; offset < length; offset += view.capacity()) {
+            int count = Math.min(view.capacity(), length - offset);
+            view.clear();
+            view.put(values, offset, count);
+            buffer.clear().limit(count * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Streams the first <code>length</code> doubles of <code>values</code> to the channel through <code>buffer</code>.
+     */
+    static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] values, int length)
+            throws IOException {
+        DoubleBuffer view = buffer.clear().asDoubleBuffer();
+        for (int offset = 0; offset < length; offset += view.capacity()) {
+            int count = Math.min(view.capacity(), length - offset);
+            view.clear();
+            view.put(values, offset, count);
+            buffer.clear().limit(count * 8);
+            writeFully(channel, buffer);
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
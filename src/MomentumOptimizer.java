@@ -0,0 +1,42 @@
+/**
+ * Stochastic gradient descent with momentum, optionally with Nesterov's lookahead. Each weight keeps a velocity, the
+ * decaying sum of its past steps, which carries the update through flat and noisy regions of the loss.
+ */
+public class MomentumOptimizer extends Optimizer {
+    // The fraction of the velocity kept from one update to the next.
+    private final double momentum;
+    // Whether each step looks ahead along the new velocity.
+    private final boolean nesterov;
+
+    /**
+     * Creates a classical momentum optimizer with a momentum of 0.9.
+     */
+    public MomentumOptimizer() {
+        this(0.9, false);
+    }
+
+    /**
+     * @param momentum The fraction of the velocity kept from one update to the next, [0.0,1.0).
+     * @param nesterov Whether to use Nesterov's accelerated gradient.
+     */
+    public MomentumOptimizer(double momentum, boolean nesterov) {
+        super(1);
+        if (momentum < 0.0 || momentum >= 1.0) {
+            throw new IllegalArgumentException("Error: Expected a momentum in [0, 1), got " + momentum);
+        }
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+    }
+
+    @Override
+    protected double update(double[] values, double[] gradients, double[][] state, int length, double learningRate,
+                            double scale, long step) {
+        return Kernels.INSTANCE.momentum(values, gradients, state[0], length, learningRate * scale, momentum,
+                nesterov);
+    }
+
+    @Override
+    public String toString() {
+        return (nesterov ? "Nesterov" : "Momentum") + "(" + momentum + ")";
+    }
+}
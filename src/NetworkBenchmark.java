@@ -0,0 +1,522 @@
+import com.sun.management.ThreadMXBean;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A benchmark harness for the network's hot paths. Every benchmark is run against each network shape, first for a
+ * number of warm-up iterations so the JIT has compiled it, and then for a number of measured iterations. Each
+ * iteration repeats the operation for a fixed amount of time and reports the average time per operation, along with
+ * the bytes allocated per operation by the benchmarking thread.
+ * <pre>
+ * java NetworkBenchmark [benchmark filter] [shape, e.g. 2-4-1] ...
+ * java NetworkBenchmark --allocations [shape] ...
+ * java NetworkBenchmark --optimizers [runs]
+ * java NetworkBenchmark --distributed [shape] [examples] [epochs] [sync steps] [double | float]
+ * </pre>
+ * The second form checks that each allocation-free training and inference step allocates nothing once warmed up, and
+ * exits with a failure if any does. The third times how long each optimizer takes to train XOR down to the loss
+ * target of the XOR example. The fourth trains the same network on the same synthetic dataset in a single process and
+ * with parameter averaging across 1, 2 and 4 worker processes on localhost, and reports the time and held-out loss of
+ * each.
+ */
+public class NetworkBenchmark {
+    // The network shapes benchmarked when none are given, from the XOR example up to 1024-wide nets.
+    private static final String[] SHAPES = {"2-4-1", "64-128-10", "256-512-512-10", "1024-1024-1024-10"};
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 200_000_000L;
+    // The most iterations --allocations runs an operation for while waiting for it to stop allocating.
+    private static final int ALLOCATION_ITERATIONS = 25;
+    // The number of examples in each batch benchmark.
+    private static final int BATCH = 64;
+
+    // The optimizers compared by --optimizers, with the learning rate each is run at. SGD has no optimizer set.
+    private static final String[] OPTIMIZERS = {"SGD", "Momentum", "Nesterov", "RMSProp", "Adam"};
+    private static final double[] OPTIMIZER_RATES = {0.02, 0.05, 0.05, 0.01, 0.02};
+    // The mean squared error over the four XOR examples that counts as trained, as in XORExample.
+    private static final double TARGET_LOSS = 0.05;
+    // The number of examples trained on between checks of the loss.
+    private static final int SESSION = 48;
+    // The number of examples after which a run is counted as not reaching the target.
+    private static final int MAX_EXAMPLES = 2_000_000;
+    // The numbers of worker processes compared by --distributed, and the examples its held-out loss is measured on.
+    private static final int[] WORKERS = {1, 2, 4};
+    private static final int TEST_EXAMPLES = 4096;
+
+    // Results are summed here so the JIT cannot remove the work producing them.
+    private static double sink;
+
+    /**
+     * A single operation to be timed.
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * A named benchmark, set up once for each network shape.
+     */
+    interface Benchmark {
+        Operation setUp(NeuralNetwork network, double[][] inputs, double[][] expectedOutputs) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--allocations")) {
+            String[] shapes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : SHAPES;
+            System.exit(checkAllocations(shapes) ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--optimizers")) {
+            timeToTarget(args.length > 1 ? Integer.parseInt(args[1]) : 20);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--distributed")) {
+            distributed(args.length > 1 ? args[1] : "64-128-10", args.length > 2 ? Integer.parseInt(args[2]) : 32768,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 2, args.length > 4 ? Integer.parseInt(args[4]) : 8,
+                    args.length > 5 && args[5].equals("float") ? AveragingCoordinator.FLOAT :
+                            AveragingCoordinator.DOUBLE);
+            return;
+        }
+        String filter = args.length > 0 ? args[0] : "";
+        String[] shapes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : SHAPES;
+
+        List<String> names = new ArrayList<>();
+        List<Benchmark> benchmarks = new ArrayList<>();
+        register(names, benchmarks);
+
+        System.out.println("Kernels: " + Kernels.INSTANCE.name());
+        System.out.printf("%-28s %-20s %14s %12s %12s%n", "Benchmark", "Shape", "ns/op", "error", "B/op");
+        for (String shape : shapes) {
+            for (int i = 0; i < names.size(); i++) {
+                if (!names.get(i).contains(filter))
+                    continue;
+                NeuralNetwork network = network(shape);
+                Random random = new Random(42);
+                double[][] inputs = random(random, BATCH, network.network[0].size);
+                double[][] expectedOutputs = random(random, BATCH, network.network[network.layers - 1].size);
+                Operation operation = benchmarks.get(i).setUp(network, inputs, expectedOutputs);
+                // A benchmark that does not apply to this shape sets up no operation.
+                if (operation == null)
+                    continue;
+                report(names.get(i), shape, measure(operation));
+            }
+        }
+    }
+
+    /**
+     * Lists every benchmark.
+     */
+    private static void register(List<String> names, List<Benchmark> benchmarks) {
+        add(names, benchmarks, "calculate", (network, inputs, expectedOutputs) -> {
+            network.setInputs(inputs[0]);
+            return network::calculate;
+        });
+        add(names, benchmarks, "getOutputs", (network, inputs, expectedOutputs) -> {
+            network.setInputs(inputs[0]);
+            network.calculate();
+            return () -> sink += network.getOutputs()[0];
+        });
+        add(names, benchmarks, "predict", (network, inputs, expectedOutputs) -> {
+            double[] outputs = new double[expectedOutputs[0].length];
+            return () -> {
+                network.predict(inputs[0], outputs);
+                sink += outputs[0];
+            };
+        });
+        add(names, benchmarks, "OffHeapNetwork.predict", (network, inputs, expectedOutputs) -> {
+            OffHeapNetwork offHeap = new OffHeapNetwork(network);
+            double[] outputs = new double[expectedOutputs[0].length];
+            return () -> {
+                offHeap.predict(inputs[0], outputs);
+                sink += outputs[0];
+            };
+        });
+        add(names, benchmarks, "NetworkCompiler.predict", (network, inputs, expectedOutputs) -> {
+            CompiledNetwork compiled;
+            try {
+                compiled = NetworkCompiler.compile(network);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            double[] outputs = new double[expectedOutputs[0].length];
+            return () -> {
+                compiled.predict(inputs[0], outputs);
+                sink += outputs[0];
+            };
+        });
+        add(names, benchmarks, "InferenceCache.calculate", (network, inputs, expectedOutputs) -> {
+            InferenceCache cache = new InferenceCache(network, BATCH);
+            double[] outputs = new double[expectedOutputs[0].length];
+            int[] example = new int[1];
+            return () -> {
+                cache.calculate(inputs[example[0]++ & (BATCH - 1)], outputs);
+                sink += outputs[0];
+            };
+        });
+        add(names, benchmarks, "backProp", (network, inputs, expectedOutputs) -> {
+            int[] example = new int[1];
+            return () -> {
+                int i = example[0]++ & (BATCH - 1);
+                network.backProp(inputs[i], expectedOutputs[i]);
+            };
+        });
+        add(names, benchmarks, "sumError+backPropSumError", (network, inputs, expectedOutputs) -> () -> {
+            for (int i = 0; i < BATCH; i++) {
+                network.sumError(inputs[i], expectedOutputs[i]);
+            }
+            network.backPropSumError();
+        });
+        add(names, benchmarks, "trainBatch", (network, inputs, expectedOutputs) ->
+                () -> network.trainBatch(inputs, expectedOutputs));
+        add(names, benchmarks, "trainBatch+metrics", (network, inputs, expectedOutputs) -> {
+            network.setMetricsListener(new TrainingMetrics(network.layers));
+            return () -> network.trainBatch(inputs, expectedOutputs);
+        });
+        add(names, benchmarks, "trainBatch+momentum", (network, inputs, expectedOutputs) -> {
+            network.setOptimizer(new MomentumOptimizer(0.9, true));
+            return () -> network.trainBatch(inputs, expectedOutputs);
+        });
+        add(names, benchmarks, "trainBatch+adam", (network, inputs, expectedOutputs) -> {
+            network.setOptimizer(new AdamOptimizer());
+            return () -> network.trainBatch(inputs, expectedOutputs);
+        });
+        add(names, benchmarks, "copyConstructor", (network, inputs, expectedOutputs) ->
+                () -> sink += new NeuralNetwork(network).layers);
+        add(names, benchmarks, "copyWeightFrom", (network, inputs, expectedOutputs) -> {
+            NeuralNetwork copy = new NeuralNetwork(network);
+            return () -> copy.copyWeightFrom(network);
+        });
+        add(names, benchmarks, "saveToFile+loadFromFile", (network, inputs, expectedOutputs) -> {
+            File file = File.createTempFile("benchmark", ".txt");
+            file.deleteOnExit();
+            return () -> {
+                network.saveToFile(file.getPath());
+                network.loadFromFile(file.getPath());
+            };
+        });
+        add(names, benchmarks, "saveBinary+loadBinary", (network, inputs, expectedOutputs) -> {
+            File file = File.createTempFile("benchmark", ".bin");
+            file.deleteOnExit();
+            return () -> {
+                network.saveBinary(file.getPath());
+                network.loadBinary(file.getPath());
+            };
+        });
+    }
+
+    /**
+     * Checks that every allocation-free step allocates no bytes per operation once warmed up.
+     * @return True if none of them allocate.
+     */
+    private static boolean checkAllocations(String[] shapes) throws Exception {
+        boolean passed = true;
+        for (String shape : shapes) {
+            NeuralNetwork network = network(shape);
+            Random random = new Random(42);
+            double[][] inputs = random(random, BATCH, network.network[0].size);
+            double[][] expectedOutputs = random(random, BATCH, network.network[network.layers - 1].size);
+            double[] outputs = new double[expectedOutputs[0].length];
+            double[][] batchOutputs = new double[BATCH][outputs.length];
+            int[] example = new int[1];
+
+            String[] names = {"calculate+getOutputs", "predict", "backProp", "sumError+backPropSumError",
+                    "trainBatch", "trainBatch+adam", "calculateBatch", "copyWeightFrom", "InferenceCache.calculate"};
+            NeuralNetwork copy = new NeuralNetwork(network);
+            NeuralNetwork adam = new NeuralNetwork(network);
+            adam.setOptimizer(new AdamOptimizer());
+            InferenceCache cache = new InferenceCache(copy, BATCH);
+            Operation[] operations = {
+                    () -> network.calculate(inputs[0], outputs),
+                    () -> network.predict(inputs[0], outputs),
+                    () -> {
+                        int i = example[0]++ & (BATCH - 1);
+                        network.backProp(inputs[i], expectedOutputs[i]);
+                    },
+                    () -> {
+                        for (int i = 0; i < BATCH; i++) {
+                            network.sumError(inputs[i], expectedOutputs[i]);
+                        }
+                        network.backPropSumError();
+                    },
+                    () -> network.trainBatch(inputs, expectedOutputs),
+                    () -> adam.trainBatch(inputs, expectedOutputs),
+                    () -> network.calculateBatch(inputs, batchOutputs),
+                    () -> copy.copyWeightFrom(network),
+                    () -> cache.calculate(inputs[example[0]++ & (BATCH - 1)], outputs)
+            };
+            for (int i = 0; i < operations.length; i++) {
+                double bytes = steadyAllocation(operations[i]);
+                boolean allocationFree = bytes == 0;
+                passed &= allocationFree;
+                System.out.printf("%-28s %-20s %12.1f B/op %s%n", names[i], shape, bytes,
+                        allocationFree ? "OK" : "FAILED");
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Trains a 2-4-1 network on XOR with each optimizer from the same seeds, both one example at a time with
+     * backProp() and in batches of all four examples with trainBatch(), until the mean squared error of a session of
+     * examples falls below the target. Every run is repeated once to warm up first.
+     * @param runs The number of seeds each optimizer is trained from.
+     */
+    private static void timeToTarget(int runs) {
+        System.out.println("Kernels: " + Kernels.INSTANCE.name());
+        System.out.printf("%-10s %-10s %8s %12s %12s%n", "Optimizer", "Mode", "Reached", "Examples", "ms");
+        for (boolean batched : new boolean[] {false, true}) {
+            for (int i = 0; i < OPTIMIZERS.length; i++) {
+                long[] nanos = new long[runs];
+                long examples = 0;
+                int reached = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    reached = 0;
+                    for (int seed = 0; seed < runs; seed++) {
+                        long start = System.nanoTime();
+                        long count = trainToTarget(OPTIMIZERS[i], OPTIMIZER_RATES[i], batched, seed);
+                        long time = System.nanoTime() - start;
+                        if (pass == 1 && count >= 0) {
+                            nanos[reached++] = time;
+                            examples += count;
+                        }
+                    }
+                }
+                // Report the mean examples and median time of the runs that reached the target.
+                Arrays.sort(nanos, 0, reached);
+                System.out.printf("%-10s %-10s %5d/%-2d %12s %12s%n", OPTIMIZERS[i],
+                        batched ? "trainBatch" : "backProp", reached, runs,
+                        reached == 0 ? "-" : String.valueOf(examples / reached),
+                        reached == 0 ? "-" : String.format("%.2f", nanos[reached / 2] / 1e6));
+            }
+        }
+    }
+
+    /**
+     * Trains copies of one network on a synthetic dataset in this process with trainBatch(), and then with an
+     * AveragingCoordinator here and each number of AveragingWorker processes launched on localhost, every worker
+     * generating the same dataset and training on its share. Times include starting the workers' JVMs.
+     */
+    private static void distributed(String shape, int examples, int epochs, int syncSteps, int encoding)
+            throws Exception {
+        int batchSize = 32;
+        long seed = 42;
+        NeuralNetwork initial = network(shape);
+        // The workers generate the first examples of the same stream, so the rest are held out.
+        double[][][] data = AveragingWorker.dataset(initial, examples + TEST_EXAMPLES, seed);
+        double[][] inputs = Arrays.copyOfRange(data[0], 0, examples);
+        double[][] expectedOutputs = Arrays.copyOfRange(data[1], 0, examples);
+        double[][] testInputs = Arrays.copyOfRange(data[0], examples, examples + TEST_EXAMPLES);
+        double[][] testOutputs = Arrays.copyOfRange(data[1], examples, examples + TEST_EXAMPLES);
+
+        System.out.println("Kernels: " + Kernels.INSTANCE.name() + " | Processors: " +
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-16s %10s %12s %12s %14s%n", "Mode", "Rounds", "ms", "Speedup", "Held-out MSE");
+        NeuralNetwork single = new NeuralNetwork(initial);
+        long start = System.nanoTime();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            for (int from = 0; from < examples; from += batchSize) {
+                int to = Math.min(from + batchSize, examples);
+                single.trainBatch(Arrays.copyOfRange(inputs, from, to), Arrays.copyOfRange(expectedOutputs, from, to));
+            }
+        }
+        double baseline = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%-16s %10s %12.1f %12.2f %14.6f%n", "single process", "-", baseline, 1.0,
+                meanSquaredError(single, testInputs, testOutputs));
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        for (int workers : WORKERS) {
+            NeuralNetwork network = new NeuralNetwork(initial);
+            try (AveragingCoordinator coordinator = new AveragingCoordinator(network, 0, workers, syncSteps,
+                    encoding)) {
+                start = System.nanoTime();
+                List<Process> processes = new ArrayList<>();
+                for (int worker = 0; worker < workers; worker++) {
+                    processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                            "AveragingWorker", "localhost", String.valueOf(coordinator.getPort()),
+                            String.valueOf(examples), String.valueOf(epochs), String.valueOf(batchSize),
+                            String.valueOf(seed))
+                            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                            .redirectError(ProcessBuilder.Redirect.INHERIT)
+                            .start());
+                }
+                coordinator.run();
+                for (Process process : processes) {
+                    if (process.waitFor() != 0)
+                        throw new IllegalStateException("Error: A worker exited with " + process.exitValue());
+                }
+                double time = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-16s %10d %12.1f %12.2f %14.6f%n", workers + " workers", coordinator.getRounds(),
+                        time, baseline / time, meanSquaredError(network, testInputs, testOutputs));
+            }
+        }
+    }
+
+    /**
+     * @return The mean squared error of the network over the given examples.
+     */
+    private static double meanSquaredError(NeuralNetwork network, double[][] inputs, double[][] expectedOutputs) {
+        double[] outputs = new double[expectedOutputs[0].length];
+        double sum = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            network.predict(inputs[i], outputs);
+            for (int j = 0; j < outputs.length; j++) {
+                sum += (outputs[j] - expectedOutputs[i][j]) * (outputs[j] - expectedOutputs[i][j]);
+            }
+        }
+        return sum / ((double) inputs.length * outputs.length);
+    }
+
+    /**
+     * Trains a single network on XOR until the mean squared error over the four examples reaches the target loss,
+     * either on randomly chosen examples one at a time or on batches of all four.
+     * @return The number of examples trained on, or -1 if the target was not reached.
+     */
+    private static long trainToTarget(String optimizer, double learningRate, boolean batched, long seed) {
+        NeuralNetwork network = new NeuralNetwork(2, 1, 1, new int[] {4}, learningRate);
+        Random random = new Random(seed);
+        for (int layer = 1; layer < network.layers; layer++) {
+            network.network[layer].initialize(random);
+        }
+        network.setOptimizer(switch (optimizer) {
+            case "Momentum" -> new MomentumOptimizer(0.9, false);
+            case "Nesterov" -> new MomentumOptimizer(0.9, true);
+            case "RMSProp" -> new RMSPropOptimizer();
+            case "Adam" -> new AdamOptimizer();
+            default -> null;
+        });
+
+        double[][] inputs = {{0, 0}, {0, 1}, {1, 0}, {1, 1}};
+        double[][] expectedOutputs = {{0}, {1}, {1}, {0}};
+        double[] outputs = new double[1];
+        for (long examples = 0; examples < MAX_EXAMPLES; ) {
+            for (int i = 0; i < SESSION; i += batched ? inputs.length : 1) {
+                if (batched) {
+                    network.trainBatch(inputs, expectedOutputs);
+                } else {
+                    int example = random.nextInt(inputs.length);
+                    network.backProp(inputs[example], expectedOutputs[example]);
+                }
+            }
+            examples += SESSION;
+
+            double loss = 0;
+            for (int i = 0; i < inputs.length; i++) {
+                network.predict(inputs[i], outputs);
+                loss += (outputs[0] - expectedOutputs[i][0]) * (outputs[0] - expectedOutputs[i][0]) / inputs.length;
+            }
+            if (loss < TARGET_LOSS)
+                return examples;
+        }
+        return -1;
+    }
+
+    private static void add(List<String> names, List<Benchmark> benchmarks, String name, Benchmark benchmark) {
+        names.add(name);
+        benchmarks.add(benchmark);
+    }
+
+    /**
+     * Runs the warm-up and measured iterations of an operation.
+     * @return The nanoseconds per operation of each measured iteration, followed by the bytes allocated per operation
+     *         across all of them.
+     */
+    private static double[] measure(Operation operation) throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+
+        double[] results = new double[MEASURED_ITERATIONS + 1];
+        long operations = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long count = iteration(operation);
+            results[i] = (double) (System.nanoTime() - start) / count;
+            operations += count;
+        }
+        results[MEASURED_ITERATIONS] = (double) (threads.getThreadAllocatedBytes(thread) - allocated) / operations;
+        return results;
+    }
+
+    /**
+     * Runs an operation until it has allocated nothing in two iterations in a row, so allocations made while the JIT
+     * and any lazy initialization settle do not count, giving up after ALLOCATION_ITERATIONS.
+     * @return 0 if the operation stopped allocating, or else the bytes allocated per operation in the last iteration.
+     */
+    private static double steadyAllocation(Operation operation) throws Exception {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+        double bytes = 0;
+        int clean = 0;
+        for (int i = 0; i < ALLOCATION_ITERATIONS && clean < 2; i++) {
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long count = iteration(operation);
+            bytes = (double) (threads.getThreadAllocatedBytes(thread) - allocated) / count;
+            clean = bytes == 0 ? clean + 1 : 0;
+        }
+        return clean < 2 ? bytes : 0;
+    }
+
+    /**
+     * Repeats the operation until the iteration time has passed, checking the clock in growing strides so that it does
+     * not dominate fast operations.
+     * @return The number of times the operation was run.
+     */
+    private static long iteration(Operation operation) throws Exception {
+        long end = System.nanoTime() + ITERATION_NANOS;
+        long count = 0;
+        long stride = 1;
+        do {
+            for (long i = 0; i < stride; i++) {
+                operation.run();
+            }
+            count += stride;
+            stride = Math.min(stride * 2, 1 << 16);
+        } while (System.nanoTime() < end);
+        return count;
+    }
+
+    private static void report(String name, String shape, double[] results) {
+        double mean = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            mean += results[i] / MEASURED_ITERATIONS;
+        }
+        double variance = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            variance += (results[i] - mean) * (results[i] - mean) / (MEASURED_ITERATIONS - 1);
+        }
+        System.out.printf("%-28s %-20s %14.1f %12.1f %12.1f%n", name, shape, mean, Math.sqrt(variance),
+                results[MEASURED_ITERATIONS]);
+    }
+
+    /**
+     * Builds and initializes a network from a shape such as 2-4-1, listing the size of each layer.
+     */
+    static NeuralNetwork network(String shape) {
+        int[] sizes = Arrays.stream(shape.split("-")).mapToInt(Integer::parseInt).toArray();
+        int[] hidden = Arrays.copyOfRange(sizes, 1, sizes.length - 1);
+        NeuralNetwork network = new NeuralNetwork(sizes[0], sizes[sizes.length - 1], hidden.length, hidden, 0.01);
+        network.initialize();
+        return network;
+    }
+
+    static double[][] random(Random random, int rows, int columns) {
+        double[][] values = new double[rows][columns];
+        for (double[] row : values) {
+            for (int i = 0; i < columns; i++) {
+                row[i] = random.nextDouble();
+            }
+        }
+        return values;
+    }
+}
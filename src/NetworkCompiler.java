@@ -0,0 +1,242 @@
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Compiles a trained network into a class of its own for the fastest possible inference of small, fixed networks.
+ * The generated class computes every neuron as a single unrolled expression over local variables, with each weight
+ * and bias written in as a constant, pruned weights left out and each layer's activation function written inline, so
+ * there are no loops, no switch on the activation function and, past a single check of each array's length, no array
+ * bounds checks. Its outputs are exactly those of NeuralNetwork.predict() on the scalar kernels.
+ * <p>
+ * The source is compiled in memory with the JDK's own compiler, so this needs a JDK rather than a JRE, and the class
+ * is defined as a hidden class, which is unloaded once the returned network is no longer used.
+ * <pre>
+ * CompiledNetwork compiled = NetworkCompiler.compile(nn);
+ * compiled.predict(inputs, outputs);
+ * </pre>
+ * The weights are copied when compiling, so a network that is trained further must be compiled again.
+ */
+public class NetworkCompiler {
+    // The most bytecode the generated method may have. HotSpot will not JIT compile a larger method, and a network
+    // that is only ever interpreted is far slower than NeuralNetwork.predict().
+    public static final int MAX_CODE_SIZE = 8000;
+    // The name the generated class is compiled under.
+    private static final String CLASS_NAME = "GeneratedNetwork";
+
+    /**
+     * Generates, compiles and loads a class computing the given network.
+     * @param network The trained network, which is only read.
+     * @return The compiled network.
+     * @throws IllegalArgumentException Thrown if the network's code would be larger than MAX_CODE_SIZE.
+     * @throws UnsupportedOperationException Thrown if no Java compiler is available.
+     */
+    public static CompiledNetwork compile(NeuralNetwork network) {
+        String source = generate(network);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new UnsupportedOperationException("Error: No Java compiler is available, run on a JDK to compile " +
+                    "networks");
+        }
+
+        ClassFile classFile = new ClassFile();
+        StringWriter errors = new StringWriter();
+        var fileManager = new javax.tools.ForwardingJavaFileManager<>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                       javax.tools.FileObject sibling) {
+                return classFile;
+            }
+        };
+        boolean compiled = compiler.getTask(errors, fileManager, null,
+                List.of("-classpath", System.getProperty("java.class.path"), "-g:none"), null,
+                List.of(new SourceFile(source))).call();
+        if (!compiled) {
+            throw new IllegalStateException("Error: The generated network did not compile\n" + errors);
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile.bytes.toByteArray(),
+                    true);
+            return (CompiledNetwork) lookup.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Error: The generated network could not be loaded", e);
+        }
+    }
+
+    /**
+     * Generates the source of a class computing the given network, as compile() does.
+     * @param network The trained network, which is only read.
+     * @return The Java source of the class.
+     * @throws IllegalArgumentException Thrown if the network's code would be larger than MAX_CODE_SIZE.
+     */
+    public static String generate(NeuralNetwork network) {
+        Layer[] layers = network.network;
+        long size = codeSize(layers);
+        if (size > MAX_CODE_SIZE) {
+            throw new IllegalArgumentException("Error: The network would compile to about " + size +
+                    " bytes of bytecode, more than the " + MAX_CODE_SIZE + " the JIT compiles");
+        }
+
+        int inputs = layers[0].size;
+        int outputs = layers[layers.length - 1].size;
+        StringBuilder source = new StringBuilder();
+        source.append("public final class ").append(CLASS_NAME).append(" implements CompiledNetwork {\n");
+        source.append("    public void predict(double[] inputs, double[] outputs) {\n");
+        source.append("        if (inputs.length != ").append(inputs).append(" || outputs.length != ").append(outputs)
+                .append(")\n");
+        source.append("            throw new IllegalArgumentException(\"Error: Expected ").append(inputs)
+                .append(" inputs and ").append(outputs).append(" outputs, got \" + inputs.length + \" and \" + ")
+                .append("outputs.length);\n");
+        for (int n = 0; n < inputs; n++) {
+            source.append("        double v0_").append(n).append(" = inputs[").append(n).append("];\n");
+        }
+
+        for (int layer = 1; layer < layers.length; layer++) {
+            Layer current = layers[layer];
+            for (int n = 0; n < current.size; n++) {
+                // Sum the kept weights in order, and then add the bias, as Layer.predict() does. A pruned weight only
+                // ever adds zero, so it is left out.
+                StringBuilder sum = new StringBuilder();
+                int row = n * current.inputs;
+                for (int i = 0; i < current.inputs; i++) {
+                    double weight = current.weights[row + i];
+                    if (current.mask != null && !current.mask[row + i])
+                        continue;
+                    if (sum.length() > 0)
+                        sum.append(" + ");
+                    sum.append(literal(weight)).append(" * v").append(layer - 1).append('_').append(i);
+                }
+                String value = "v" + layer + "_" + n;
+                source.append("        double ").append(value).append(" = ").append(literal(current.biases[n]));
+                if (sum.length() > 0)
+                    source.append(" + (").append(sum).append(')');
+                source.append(";\n");
+                switch (current.activationFunction) {
+                    case 1 -> source.append("        ").append(value).append(" = Math.max(0.0, ").append(value)
+                            .append(");\n");
+                    case 2 -> source.append("        ").append(value).append(" = 0.5 * (").append(value)
+                            .append(" / (1 + Math.abs(").append(value).append("))) + 0.5;\n");
+                    case 3 -> {}
+                    default -> throw new IllegalStateException("Unexpected value: " + current.activationFunction);
+                }
+            }
+        }
+
+        for (int n = 0; n < outputs; n++) {
+            source.append("        outputs[").append(n).append("] = v").append(layers.length - 1).append('_')
+                    .append(n).append(";\n");
+        }
+        source.append("    }\n}\n");
+        return source.toString();
+    }
+
+    /**
+     * Estimates the bytecode size of the generated method from above, so it can be checked before generating it.
+     * Each value is a local variable of its own, and the index of a local past 255 takes two more bytes to load.
+     * @param layers The layers of the network.
+     * @return The estimated size in bytes.
+     */
+    private static long codeSize(Layer[] layers) {
+        // The length checks, with the construction of their exception.
+        long size = 80;
+        // Locals 0 to 2 hold this and the arrays, and each double takes two.
+        int local = 3;
+        int[] previous = new int[layers[0].size];
+        for (int n = 0; n < previous.length; n++) {
+            previous[n] = local;
+            local += 2;
+            size += 1 + push(n) + 1 + access(previous[n]);
+        }
+        for (int layer = 1; layer < layers.length; layer++) {
+            Layer current = layers[layer];
+            int[] values = new int[current.size];
+            for (int n = 0; n < current.size; n++) {
+                values[n] = local;
+                local += 2;
+                int row = n * current.inputs;
+                for (int i = 0; i < current.inputs; i++) {
+                    if (current.mask == null || current.mask[row + i])
+                        size += 3 + access(previous[i]) + 2;
+                }
+                size += 3 + 1 + access(values[n]);
+                size += switch (current.activationFunction) {
+                    case 1 -> 1 + access(values[n]) + 3 + access(values[n]);
+                    case 2 -> 14 + 2 * access(values[n]) + access(values[n]);
+                    default -> 0;
+                };
+            }
+            previous = values;
+        }
+        for (int n = 0; n < previous.length; n++) {
+            size += 1 + push(n) + access(previous[n]) + 1;
+        }
+        return size;
+    }
+
+    /**
+     * @return The bytes taken by an instruction loading or storing the given local.
+     */
+    private static int access(int local) {
+        return local < 4 ? 1 : local < 256 ? 2 : 4;
+    }
+
+    /**
+     * @return The bytes taken by an instruction pushing the given array index.
+     */
+    private static int push(int index) {
+        return index <= 5 ? 1 : index < 128 ? 2 : 3;
+    }
+
+    /**
+     * @return The Java literal of a double, which reads back as exactly the same value.
+     */
+    private static String literal(double value) {
+        if (Double.isNaN(value))
+            return "Double.NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        return value < 0 || Double.doubleToRawLongBits(value) == Long.MIN_VALUE ? "(" + value + ")" : value + "";
+    }
+
+    /**
+     * The generated source, held in memory.
+     */
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+
+        SourceFile(String source) {
+            super(URI.create("string:///" + CLASS_NAME + ".java"), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /**
+     * The compiled class, held in memory.
+     */
+    private static class ClassFile extends SimpleJavaFileObject {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile() {
+            super(URI.create("bytes:///" + CLASS_NAME + ".class"), Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+    }
+}
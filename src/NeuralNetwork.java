@@ -1,10 +1,47 @@
 import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 public class NeuralNetwork {
-    public Neuron[][] neurons;
+    // Each layer of the network, stored as flat weight, bias and activation arrays.
+    public Layer[] network;
     public final int layers;
     public double learningRate;
     private double errorSum;
+    // The per-sample state used by calculateBatch() and trainBatch(), grown to the largest batch seen.
+    private BatchWorkspace batch;
+    // The layers' own summed gradients, which trainBatch() sums into.
+    private Gradients layerGradients;
+    // The workspace each thread uses for predict() when it does not supply its own.
+    private final ThreadLocal<InferenceWorkspace> workspaces = new ThreadLocal<>();
+    // The listener told about each pass through the network, or null when metrics are disabled.
+    private MetricsListener metrics;
+    // The time spent and squared error summed by sumError() since the last backPropSumError().
+    private long pendingNanos;
+    private double pendingLoss;
+    // The squared error and examples summed since the last endEpoch(), and the number of epochs ended.
+    private double epochLoss;
+    private long epochSamples;
+    private int epoch;
+    // The non-zero inputs set by setInputs(int[], double[]), which the first layer is computed from while
+    // sparseInputs is set.
+    private int[] sparseIndices = new int[0];
+    private double[] sparseValues = new double[0];
+    private int sparseCount;
+    private boolean sparseInputs;
+    // The first-layer weight columns summed into by sumError() since the last backPropSumError(), while sparseSummed
+    // is set, which it stays only as long as every example summed has been sparse.
+    private boolean[] summedColumn = new boolean[0];
+    private int[] summedColumns = new int[0];
+    private int summedCount;
+    private boolean sparseSummed;
+    // Bumped every time the weights change, so anything derived from them knows when it is stale.
+    private volatile long version;
+    // The optimizer every update goes through, or null for plain stochastic gradient descent.
+    private Optimizer optimizer;
 
     /**
      * @param inputs The number of inputs.
@@ -14,32 +51,35 @@ public class NeuralNetwork {
      */
     public NeuralNetwork(int inputs, int outputs, int hiddenLayers, int[] layerNeurons, double learningRate) {
         this.learningRate = learningRate;
-        // Initialization of neurons.
+        // Initialization of layers.
         layers = 2 + hiddenLayers;
-        neurons = new Neuron[layers][];
+        network = new Layer[layers];
 
         // Used for mini-batching.
         errorSum = 0;
 
         // Input layer initialization.
-        neurons[0] = new Neuron[inputs];
-        for (int i = 0; i < inputs; i++) {
-            neurons[0][i] = new Neuron(3, learningRate);
-        }
-
-        // Output layer initialization.
-        neurons[layers - 1] = new Neuron[outputs];
-        for (int i = 0; i < outputs; i++) {
-            neurons[layers - 1][i] = new Neuron(2, learningRate);
-        }
+        network[0] = new Layer(inputs, 0, 3, learningRate);
 
         // Hidden layer initialization.
         for (int i = 1; i < layers - 1; i++) {
-            neurons[i] = new Neuron[layerNeurons[i - 1]];
-            for (int j = 0; j < layerNeurons[i - 1]; j++) {
-                neurons[i][j] = new Neuron(1, learningRate);
-            }
+            network[i] = new Layer(layerNeurons[i - 1], network[i - 1].size, 1, learningRate);
         }
+
+        // Output layer initialization.
+        network[layers - 1] = new Layer(outputs, network[layers - 2].size, 2, learningRate);
+    }
+
+    /**
+     * Creates a network from already built layers, such as those read from a file.
+     * @param network      The layers of the network, starting with the input layer.
+     * @param learningRate The learning rate used by backPropSumError().
+     */
+    public NeuralNetwork(Layer[] network, double learningRate) {
+        this.learningRate = learningRate;
+        this.network = network;
+        layers = network.length;
+        errorSum = 0;
     }
 
     /**
@@ -48,17 +88,15 @@ public class NeuralNetwork {
      * @param parent The network whose weights are to be copied from.
      */
     public void copyWeightFrom(NeuralNetwork parent) {
-        // Loops for each layer except the output layer.
+        // Loops for each layer except the input layer.
         for (int layer = 1; layer < layers; layer++) {
-            // Loops for each neuron on the current layer.
-            for (int neuron = 0; neuron < neurons[layer].length; neuron++) {
-                neurons[layer][neuron].biasWeight = parent.neurons[layer][neuron].biasWeight;
-                for (int weight = 0; weight < neurons[layer][neuron].weights.length; weight++) {
-                    neurons[layer][neuron].weights[weight] = parent.neurons[layer][neuron].weights[weight];
-                    neurons[layer][neuron].learningRate = parent.neurons[layer][neuron].learningRate;
-                }
-            }
+            Layer from = parent.network[layer];
+            Layer to = network[layer];
+            System.arraycopy(from.weights, 0, to.weights, 0, to.weights.length);
+            System.arraycopy(from.biases, 0, to.biases, 0, to.size);
+            System.arraycopy(from.learningRates, 0, to.learningRates, 0, to.size);
         }
+        version++;
     }
 
     /**
@@ -69,29 +107,13 @@ public class NeuralNetwork {
         learningRate = neuralNetwork.learningRate;
         this.errorSum = neuralNetwork.errorSum;
 
-        // Get the parent network to copy from.
-        Neuron[][] parentNetwork = neuralNetwork.neurons;
-
         // Get the parent's number of layers.
-        this.layers = parentNetwork.length;
-
-        // Initialize the new network's layers.
-        neurons = new Neuron[layers][];
+        this.layers = neuralNetwork.network.length;
 
-        // Initialize the new network's inputs.
-        neurons[0] = new Neuron[parentNetwork[0].length];
-        for (int i = 0; i < neurons[0].length; i++) {
-            neurons[0][i] = new Neuron(3, learningRate);
-        }
-
-        // Loops for each layer except the output layer.
-        for (int layer = 1; layer < layers; layer++) {
-            neurons[layer] = new Neuron[parentNetwork[layer].length];
-            // Loops for each neuron on the current layer.
-            for (int neuron = 0; neuron < neurons[layer].length; neuron++) {
-                // Copies and initializes the neuron.
-                neurons[layer][neuron] = new Neuron(parentNetwork[layer][neuron], neurons[layer - 1]);
-            }
+        // Copy each of the parent's layers.
+        network = new Layer[layers];
+        for (int layer = 0; layer < layers; layer++) {
+            network[layer] = new Layer(neuralNetwork.network[layer]);
         }
     }
 
@@ -100,14 +122,14 @@ public class NeuralNetwork {
      * data is input, or no output will be generated.
      */
     public void initialize() {
-        // Loops for each layer except the output layer.
+        Random random = new Random();
+        // Loops for each layer except the input layer.
         for (int layer = 1; layer < layers; layer++) {
-            // Loops for each neuron on the current layer.
-            for (int neuron = 0; neuron < neurons[layer].length; neuron++) {
-                neurons[layer][neuron].setLastLayer(neurons[layer - 1]);
-                neurons[layer][neuron].initialize();
-            }
+            network[layer].initialize(random);
         }
+        if (optimizer != null)
+            optimizer.reset();
+        version++;
     }
 
     /**
@@ -115,12 +137,35 @@ public class NeuralNetwork {
      * getOutputs() to access this processed data.
      */
     public void calculate() {
-        // Loops for each layer except the output layer.
+        if (metrics != null) {
+            calculateTimed(metrics);
+            return;
+        }
+        // Loops for each layer except the input layer.
         for (int layer = 1; layer < layers; layer++) {
-            // Loops for each neuron on the current layer.
-            for (int neuron = 0; neuron < neurons[layer].length; neuron++) {
-                neurons[layer][neuron].calculate();
-            }
+            calculateLayer(layer);
+        }
+    }
+
+    /**
+     * Calculates a single layer from the one before it, using only the non-zero inputs for the first layer if they
+     * were set sparsely.
+     */
+    private void calculateLayer(int layer) {
+        if (layer == 1 && sparseInputs)
+            network[1].calculateSparse(sparseIndices, sparseValues, sparseCount);
+        else
+            network[layer].calculate(network[layer - 1].values);
+    }
+
+    /**
+     * Calculates the network as calculate() does, reporting the time taken by each layer.
+     */
+    private void calculateTimed(MetricsListener metrics) {
+        for (int layer = 1; layer < layers; layer++) {
+            long start = System.nanoTime();
+            calculateLayer(layer);
+            metrics.layerForward(layer, 1, System.nanoTime() - start);
         }
     }
 
@@ -129,10 +174,114 @@ public class NeuralNetwork {
      * @return An array of doubles of the size of the output layer, which are the values of the corresponding neurons.
      */
     public double[] getOutputs() {
-        double[] outputs = new double[neurons[neurons.length - 1].length];
-        for (int i = 0; i < neurons[neurons.length - 1].length; i++)
-            outputs[i] = neurons[neurons.length - 1][i].value;
-        return outputs;
+        return network[layers - 1].values.clone();
+    }
+
+    /**
+     * Copies the outputs of the last calculate() into the given array, without allocating a new one.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     */
+    public void getOutputs(double[] outputs) {
+        System.arraycopy(network[layers - 1].values, 0, outputs, 0, network[layers - 1].size);
+    }
+
+    /**
+     * Sets the inputs, calculates the network, and copies its outputs into the given array in one call.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     */
+    public void calculate(double[] inputs, double[] outputs) {
+        MetricsListener metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        setInputs(inputs);
+        calculate();
+        getOutputs(outputs);
+        if (metrics != null)
+            metrics.inferenceCompleted(1, System.nanoTime() - start);
+    }
+
+    /**
+     * Sets sparse inputs, calculates the network, and copies its outputs into the given array in one call.
+     * @param indices The distinct indices of the non-zero inputs.
+     * @param values  The value of each of those inputs.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     */
+    public void calculate(int[] indices, double[] values, double[] outputs) {
+        MetricsListener metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        setInputs(indices, values);
+        calculate();
+        getOutputs(outputs);
+        if (metrics != null)
+            metrics.inferenceCompleted(1, System.nanoTime() - start);
+    }
+
+    /**
+     * Calculates the outputs of the network for the given inputs without changing any of the network's state, so any
+     * number of threads may predict with the same network at once. Each thread keeps its own workspace; use
+     * predict(double[], double[], InferenceWorkspace) to supply one instead, e.g. from a pool.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     */
+    public void predict(double[] inputs, double[] outputs) {
+        predict(inputs, outputs, workspace());
+    }
+
+    /**
+     * Calculates the outputs of the network for sparse inputs without changing any of the network's state, as
+     * predict(double[], double[]) does. Only the weight columns of the non-zero inputs are touched.
+     * @param indices The distinct indices of the non-zero inputs.
+     * @param values  The value of each of those inputs.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IllegalArgumentException Ensure that both arrays are of equal length, and every index is within the
+     *                                  input layer.
+     */
+    public void predict(int[] indices, double[] values, double[] outputs) {
+        checkSparse(indices, values);
+        MetricsListener metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        InferenceWorkspace workspace = workspace();
+        double[] last = layers == 2 ? outputs : workspace.first;
+        network[1].predictSparse(indices, values, indices.length, last);
+        for (int layer = 2; layer < layers; layer++) {
+            double[] next = layer == layers - 1 ? outputs : (layer & 1) == 1 ? workspace.first : workspace.second;
+            network[layer].predict(last, next);
+            last = next;
+        }
+        if (metrics != null)
+            metrics.inferenceCompleted(1, System.nanoTime() - start);
+    }
+
+    /**
+     * @return The calling thread's workspace for predict(), created or replaced if it does not fit the network.
+     */
+    private InferenceWorkspace workspace() {
+        InferenceWorkspace workspace = workspaces.get();
+        if (workspace == null || !workspace.fits(this)) {
+            workspace = new InferenceWorkspace(this);
+            workspaces.set(workspace);
+        }
+        return workspace;
+    }
+
+    /**
+     * Calculates the outputs of the network for the given inputs without changing any of the network's state, using
+     * the given workspace for the hidden layers. The weights must not be trained or loaded while predicting.
+     * @param inputs    The array of doubles representing data, of equal size to the input layer.
+     * @param outputs   The array to store the outputs into, of equal size to the output layer.
+     * @param workspace The workspace to use, which no other thread may be using.
+     */
+    public void predict(double[] inputs, double[] outputs, InferenceWorkspace workspace) {
+        MetricsListener metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        double[] last = inputs;
+        for (int layer = 1; layer < layers; layer++) {
+            double[] values = layer == layers - 1 ? outputs : (layer & 1) == 1 ? workspace.first : workspace.second;
+            network[layer].predict(last, values);
+            last = values;
+        }
+        if (metrics != null)
+            metrics.inferenceCompleted(1, System.nanoTime() - start);
     }
 
     /**
@@ -141,101 +290,335 @@ public class NeuralNetwork {
      * @param inputs The array of doubles representing data.
      */
     public void setInputs(double[] inputs) {
-        for (int i = 0; i < neurons[0].length; i++)
-            neurons[0][i].value = inputs[i];
+        System.arraycopy(inputs, 0, network[0].values, 0, network[0].size);
+        sparseInputs = false;
+    }
+
+    /**
+     * Sets the input values of the neural network from its non-zero inputs, every other input being 0. Until dense
+     * inputs are set again, the first layer is calculated and trained by touching only the weight columns of these
+     * inputs, so the cost of each example scales with its number of non-zero inputs rather than the input width.
+     * @param indices The distinct indices of the non-zero inputs.
+     * @param values  The value of each of those inputs.
+     * @throws IllegalArgumentException Ensure that both arrays are of equal length, and every index is within the
+     *                                  input layer.
+     */
+    public void setInputs(int[] indices, double[] values) {
+        checkSparse(indices, values);
+        double[] inputs = network[0].values;
+        if (sparseInputs) {
+            // Only the previous non-zero inputs need clearing.
+            for (int k = 0; k < sparseCount; k++) {
+                inputs[sparseIndices[k]] = 0.0;
+            }
+        } else {
+            Arrays.fill(inputs, 0.0);
+        }
+        if (sparseIndices.length < indices.length) {
+            sparseIndices = new int[indices.length];
+            sparseValues = new double[indices.length];
+        }
+        System.arraycopy(indices, 0, sparseIndices, 0, indices.length);
+        System.arraycopy(values, 0, sparseValues, 0, indices.length);
+        for (int k = 0; k < indices.length; k++) {
+            inputs[indices[k]] = values[k];
+        }
+        sparseCount = indices.length;
+        sparseInputs = true;
+    }
+
+    /**
+     * Checks that a set of sparse inputs matches the input layer.
+     * @throws IllegalArgumentException Thrown if both arrays are not of equal length, or an index is outside of the
+     *                                  input layer.
+     */
+    private void checkSparse(int[] indices, double[] values) {
+        if (indices.length != values.length) {
+            throw new IllegalArgumentException("Error: Expected " + indices.length + " sparse values, got " +
+                    values.length);
+        }
+        int size = network[0].size;
+        for (int index : indices) {
+            if (index < 0 || index >= size) {
+                throw new IllegalArgumentException("Error: Expected input indices below " + size + ", got " +
+                        index);
+            }
+        }
     }
 
     /**
      * This function performs backpropagation depending on the set input. Ensure an input is set before calling this
      * method.
      * @param expectedOutput The values which are expected from the neural network.
+     * @throws IllegalArgumentException Ensure that expectedOutput is equal in length to the output layer.
      */
-    public void backProp(double[] inputs, double[] expectedOutput) throws Exception {
+    public void backProp(double[] inputs, double[] expectedOutput) {
         // Checking that the given array is of equal size to the output layer.
-        if (expectedOutput.length != neurons[neurons.length - 1].length) {
-            throw new Exception("Error: Expected an array equal in size to the output layer, got " +
-                    expectedOutput.length + " when expecting " + neurons[neurons.length - 1].length);
-        }
+        if (expectedOutput.length != network[layers - 1].size)
+            throw outputSizeMismatch(expectedOutput.length);
+        long start = metrics == null ? 0 : System.nanoTime();
         setInputs(inputs);
+        backProp(expectedOutput, start);
+    }
 
-        // Push data through network.
-        calculate();
+    /**
+     * Performs backpropagation as backProp(double[], double[]) does for sparse inputs, updating only the first layer's
+     * weight columns of the non-zero inputs. An optimizer would update every weight of the first layer for each
+     * example, so this is not supported while one is set; use sumError(int[], double[], double[]) and
+     * backPropSumError() instead.
+     * @param indices        The distinct indices of the non-zero inputs.
+     * @param values         The value of each of those inputs.
+     * @param expectedOutput The values which are expected from the neural network.
+     * @throws IllegalArgumentException Ensure that expectedOutput is equal in length to the output layer, both input
+     *                                  arrays are of equal length, and every index is within the input layer.
+     * @throws IllegalStateException    Thrown if an optimizer is set.
+     */
+    public void backProp(int[] indices, double[] values, double[] expectedOutput) {
+        if (optimizer != null) {
+            throw new IllegalStateException("Error: Expected no optimizer for sparse backProp(), use sumError() and " +
+                    "backPropSumError() with " + optimizer.getClass().getSimpleName());
+        }
+        if (expectedOutput.length != network[layers - 1].size)
+            throw outputSizeMismatch(expectedOutput.length);
+        long start = metrics == null ? 0 : System.nanoTime();
+        setInputs(indices, values);
+        backProp(expectedOutput, start);
+    }
 
-        // Calculate input error.
-        Neuron[] layer = neurons[neurons.length - 1];
-        for (int i = 0; i < layer.length; i++) {
-            layer[i].error = layer[i].derivative * (expectedOutput[i] - layer[i].value);
-            layer[i].learningRate = layer[i].getDerivative(Math.abs(expectedOutput[i] - layer[i].value));
-        }
-
-        // Calculate hidden layer error.
-        for (int i = neurons.length - 2; i > 0; i--) {
-            layer = neurons[i];
-            // Compute error of layer's neurons.
-            for (int j = 0; j < layer.length; j++) {
-                double error = 0;
-                for (int neuron = 0; neuron < neurons[i + 1].length; neuron++) {
-                    error += neurons[i + 1][neuron].weights[j] * neurons[i + 1][neuron].error;
-                }
+    /**
+     * Performs backpropagation on the inputs already set.
+     * @param start The time the example was started, for the metrics listener.
+     */
+    private void backProp(double[] expectedOutput, long start) {
+        MetricsListener metrics = this.metrics;
 
-                layer[j].error = error * layer[j].derivative;
+        // Push data through network.
+        calculate();
 
-                layer[j].learningRate = layer[j].getDerivative((1.0 / neurons[i + 1].length) * error);
-            }
+        // Calculate output error.
+        Layer layer = network[layers - 1];
+        for (int i = 0; i < layer.size; i++) {
+            layer.errors[i] = layer.derivatives[i] * (expectedOutput[i] - layer.values[i]);
+            layer.learningRates[i] = layer.getDerivative(Math.abs(expectedOutput[i] - layer.values[i]));
         }
 
-        // Update weights.
-        double temp;
+        // Working back from the output layer, compute the error of the layer below and then update the weights, so
+        // every error is computed from weights that are not yet updated.
+        Kernels kernels = Kernels.INSTANCE;
         for (int i = layers - 1; i > 0; i--) {
-            layer = neurons[i];
-            for (Neuron neuron : layer) {
+            long layerStart = metrics == null ? 0 : System.nanoTime();
+            layer = network[i];
+            if (i > 1) {
+                // Compute error of the previous layer's neurons.
+                Layer previous = network[i - 1];
+                previous.sumErrors(layer);
+                for (int j = 0; j < previous.size; j++) {
+                    previous.learningRates[j] = previous.getDerivative((1.0 / layer.size) * previous.errors[j]);
+                    previous.errors[j] *= previous.derivatives[j];
+                }
+            }
+
+            // Update weights.
+            double[] lastValues = network[i - 1].values;
+            if (optimizer != null) {
+                layer.sumGradients(lastValues);
+                double magnitude = optimizer.update(i, layer, layer.weightGradients, layer.biasGradients,
+                        learningRate, 1);
+                if (metrics != null) {
+                    metrics.layerBackward(i, 1, System.nanoTime() - layerStart);
+                    metrics.weightsUpdated(i, magnitude);
+                }
+                continue;
+            }
+            for (int n = 0; n < layer.size; n++) {
+                double change = layer.learningRates[n] * layer.errors[n];
                 // Updating our bias.
-                neuron.biasWeight += neuron.learningRate * neuron.error;
-                for (int weight = 0; weight < neuron.weights.length; weight++) {
-                    neuron.weights[weight] += neuron.learningRate * neuron.error * neurons[i - 1][weight].value;
+                layer.biases[n] += change;
+                if (i == 1 && sparseInputs) {
+                    int row = n * layer.inputs;
+                    for (int k = 0; k < sparseCount; k++) {
+                        layer.weights[row + sparseIndices[k]] += change * sparseValues[k];
+                    }
+                } else {
+                    kernels.axpy(change, lastValues, 0, layer.weights, n * layer.inputs, layer.inputs);
                 }
             }
+            if (i == 1 && sparseInputs)
+                layer.applyMask(sparseIndices, sparseCount);
+            else
+                layer.applyMask();
+            if (metrics != null) {
+                metrics.layerBackward(i, 1, System.nanoTime() - layerStart);
+                metrics.weightsUpdated(i, updateMagnitude(layer, lastValues));
+            }
         }
+        version++;
+        if (metrics != null)
+            recordBatch(1, System.nanoTime() - start, squaredError(expectedOutput, network[layers - 1].values, 0));
+    }
+
+    /**
+     * @return The norm of the change backProp() just made to a layer's weights and biases, computed from each
+     *         neuron's learning rate and error.
+     */
+    private static double updateMagnitude(Layer layer, double[] lastValues) {
+        double inputs = Kernels.INSTANCE.dot(lastValues, 0, lastValues, 0, layer.inputs) + 1.0;
+        double sum = 0;
+        for (int n = 0; n < layer.size; n++) {
+            double change = layer.learningRates[n] * layer.errors[n];
+            sum += change * change * inputs;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @return The norm of the change made by applying the given gradients scaled by <code>scale</code>.
+     */
+    private static double updateMagnitude(double scale, double[] weightGradients, double[] biasGradients) {
+        Kernels kernels = Kernels.INSTANCE;
+        double sum = kernels.dot(weightGradients, 0, weightGradients, 0, weightGradients.length) +
+                kernels.dot(biasGradients, 0, biasGradients, 0, biasGradients.length);
+        return Math.abs(scale) * Math.sqrt(sum);
+    }
+
+    /**
+     * @return The norm of the change made by applying a layer's summed gradients scaled by <code>scale</code>, when
+     *         only the given weight columns were summed into.
+     */
+    private static double updateMagnitude(double scale, Layer layer, int[] columns, int count) {
+        double sum = Kernels.INSTANCE.dot(layer.biasGradients, 0, layer.biasGradients, 0, layer.size);
+        for (int n = 0; n < layer.size; n++) {
+            int row = n * layer.inputs;
+            for (int k = 0; k < count; k++) {
+                double gradient = layer.weightGradients[row + columns[k]];
+                sum += gradient * gradient;
+            }
+        }
+        return Math.abs(scale) * Math.sqrt(sum);
+    }
+
+    /**
+     * @return The squared error of a single example, summed over the outputs and divided by their number.
+     */
+    private double squaredError(double[] expectedOutput, double[] values, int offset) {
+        int size = network[layers - 1].size;
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            double error = expectedOutput[i] - values[offset + i];
+            sum += error * error;
+        }
+        return sum / size;
+    }
+
+    /**
+     * Reports a completed weight update to the metrics listener, and adds its loss to the current epoch.
+     * @param samples The number of examples in the update.
+     * @param nanos   The time taken.
+     * @param loss    The squared error summed over the examples.
+     */
+    void recordBatch(int samples, long nanos, double loss) {
+        MetricsListener metrics = this.metrics;
+        if (metrics == null)
+            return;
+        epochLoss += loss;
+        epochSamples += samples;
+        metrics.batchCompleted(samples, nanos, loss / samples);
     }
 
     /**
      * Use this method to sum the error for a given example. Use this across multiple examples to then use the
      * backPropSumError() method to update the neural network to those errors.
      * @param expectedOutput The values by which errors are summed from.
-     * @throws Exception     Ensure that expectedOutput is equal in length to the output layer.
+     * @throws IllegalArgumentException Ensure that expectedOutput is equal in length to the output layer.
      */
-    public void sumError(double[] input, double[] expectedOutput) throws Exception {
+    public void sumError(double[] input, double[] expectedOutput) {
         // Checking that the given array is of equal size to the output layer.
-        if (expectedOutput.length != neurons[neurons.length - 1].length) {
-            throw new Exception("Error: Expected an array equal in size to the output layer, got " +
-                    expectedOutput.length + " when expecting " + neurons[neurons.length - 1].length);
-        }
-
-        errorSum += 1.0;
+        if (expectedOutput.length != network[layers - 1].size)
+            throw outputSizeMismatch(expectedOutput.length);
+        long start = metrics == null ? 0 : System.nanoTime();
 
         // Set our input data.
         setInputs(input);
+        sparseSummed = false;
+        sumError(expectedOutput, start);
+    }
+
+    /**
+     * Sums the error for a given example as sumError(double[], double[]) does for sparse inputs, only touching the
+     * first layer's weight columns of the non-zero inputs. As long as every example summed is sparse,
+     * backPropSumError() also applies and resets only the first layer's columns touched by the batch.
+     * @param indices        The distinct indices of the non-zero inputs.
+     * @param values         The value of each of those inputs.
+     * @param expectedOutput The values by which errors are summed from.
+     * @throws IllegalArgumentException Ensure that expectedOutput is equal in length to the output layer, both input
+     *                                  arrays are of equal length, and every index is within the input layer.
+     */
+    public void sumError(int[] indices, double[] values, double[] expectedOutput) {
+        if (expectedOutput.length != network[layers - 1].size)
+            throw outputSizeMismatch(expectedOutput.length);
+        long start = metrics == null ? 0 : System.nanoTime();
+        setInputs(indices, values);
+        if (errorSum == 0) {
+            // A new batch, so forget the columns of the last one.
+            for (int k = 0; k < summedCount; k++) {
+                summedColumn[summedColumns[k]] = false;
+            }
+            summedCount = 0;
+            sparseSummed = true;
+        }
+        if (sparseSummed)
+            sumColumns(indices);
+        sumError(expectedOutput, start);
+    }
+
+    /**
+     * Adds the given input indices to the first-layer weight columns summed into by the current batch.
+     */
+    private void sumColumns(int[] indices) {
+        if (summedColumn.length < network[0].size) {
+            summedColumn = new boolean[network[0].size];
+            summedColumns = new int[network[0].size];
+        }
+        for (int index : indices) {
+            if (!summedColumn[index]) {
+                summedColumn[index] = true;
+                summedColumns[summedCount++] = index;
+            }
+        }
+    }
+
+    /**
+     * Sums the error of the inputs already set.
+     * @param start The time the example was started, for the metrics listener.
+     */
+    private void sumError(double[] expectedOutput, long start) {
+        MetricsListener metrics = this.metrics;
+        errorSum += 1.0;
 
         // Push data through network.
         calculate();
 
-        // Calculate input error.
-        Neuron[] layer = neurons[neurons.length - 1];
-        for (int i = 0; i < layer.length; i++) {
-            layer[i].error += layer[i].derivative * (expectedOutput[i] - layer[i].value);
+        // Calculate output error.
+        Layer layer = network[layers - 1];
+        for (int i = 0; i < layer.size; i++) {
+            layer.errors[i] = layer.derivatives[i] * (expectedOutput[i] - layer.values[i]);
         }
 
-        // Calculate hidden layer error.
-        for (int i = neurons.length - 2; i >= 0; i--) {
-            layer = neurons[i];
-            // Compute error of layer's neurons.
-            for (int j = 0; j < layer.length; j++) {
-                double error = 0.0;
-                for (int neuron = 0; neuron < neurons[i + 1].length; neuron++) {
-                    error = neurons[i + 1][neuron].weights[j] * neurons[i + 1][neuron].error;
-                }
-                layer[j].error += error * layer[j].derivative;
-            }
+        // Calculate the error of each hidden layer and sum the gradients of this example.
+        for (int i = layers - 1; i > 0; i--) {
+            long layerStart = metrics == null ? 0 : System.nanoTime();
+            if (i > 1)
+                network[i - 1].backPropagateErrors(network[i]);
+            if (i == 1 && sparseInputs)
+                network[1].sumGradientsSparse(sparseIndices, sparseValues, sparseCount);
+            else
+                network[i].sumGradients(network[i - 1].values);
+            if (metrics != null)
+                metrics.layerBackward(i, 1, System.nanoTime() - layerStart);
+        }
+        if (metrics != null) {
+            pendingLoss += squaredError(expectedOutput, layer.values, 0);
+            pendingNanos += System.nanoTime() - start;
         }
     }
 
@@ -246,21 +629,369 @@ public class NeuralNetwork {
     public void backPropSumError() {
         if (errorSum == 0)
             return;
+        MetricsListener metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        double scale = learningRate / errorSum;
         // Update weights.
-        double temp;
-        Neuron[] layer;
         for (int i = layers - 1; i > 0; i--) {
-            layer = neurons[i];
-            for (Neuron neuron : layer) {
-                // Updating our bias.
-                neuron.biasWeight += (learningRate * neuron.error) / errorSum;
-                for (int weight = 0; weight < neuron.weights.length; weight++) {
-                    neuron.weights[weight] += (learningRate * neuron.error * neurons[i - 1][weight].value) / errorSum;
-                }
-                neuron.error = 0.0;
+            Layer layer = network[i];
+            if (optimizer != null) {
+                double magnitude = optimizer.update(i, layer, layer.weightGradients, layer.biasGradients,
+                        learningRate, (int) errorSum);
+                if (metrics != null)
+                    metrics.weightsUpdated(i, magnitude);
+                continue;
             }
+            if (i == 1 && sparseSummed) {
+                if (metrics != null)
+                    metrics.weightsUpdated(i, updateMagnitude(scale, layer, summedColumns, summedCount));
+                layer.applyGradientsSparse(scale, summedColumns, summedCount);
+                continue;
+            }
+            if (metrics != null)
+                metrics.weightsUpdated(i, updateMagnitude(scale, layer.weightGradients, layer.biasGradients));
+            layer.applyGradients(scale);
+        }
+        if (metrics != null) {
+            recordBatch((int) errorSum, pendingNanos + System.nanoTime() - start, pendingLoss);
+            pendingNanos = 0;
+            pendingLoss = 0;
         }
         errorSum = 0;
+        sparseSummed = false;
+        version++;
+    }
+
+    /**
+     * Marks the end of a training epoch, reporting the mean loss of every example trained on since the last call to
+     * the metrics listener.
+     */
+    public void endEpoch() {
+        if (metrics != null)
+            metrics.epochCompleted(epoch, epochSamples, epochSamples == 0 ? 0 : epochLoss / epochSamples);
+        epoch++;
+        epochLoss = 0;
+        epochSamples = 0;
+    }
+
+    /**
+     * Returns the version of the network's weights, which starts at 0 and is bumped each time they change through
+     * initialize(), backProp(), backPropSumError(), trainBatch(), applyGradients(), copyWeightFrom(),
+     * setLayerActivation() or any of the load methods. Changing the layers' arrays directly does not bump it; call
+     * weightsChanged() after doing so.
+     * @return The current version of the weights.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Bumps the version of the weights, for code that changes the layers' arrays directly, such as Evolution.
+     */
+    void weightsChanged() {
+        version++;
+    }
+
+    /**
+     * Sets the optimizer that backProp(), backPropSumError(), trainBatch() and applyGradients() update the weights
+     * with. With an optimizer set, backProp() sums the example's gradients into the layers' own summed gradients and
+     * applies them at once, so do not call it between sumError() and backPropSumError(). An optimizer updates every
+     * weight of each layer, even when the inputs are sparse, so backProp() rejects sparse inputs while one is set; sum
+     * sparse examples with sumError() instead, which pays for the full update once per batch.
+     * @param optimizer The optimizer, e.g. an AdamOptimizer, which must not be shared with another network, or null for
+     *                  plain stochastic gradient descent.
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * @return The optimizer set by setOptimizer(), or null if the network uses plain stochastic gradient descent.
+     */
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * Sets the listener told about the timings, losses and weight updates of this network. Leave it unset, or set
+     * null, to disable metrics entirely.
+     * @param metrics The listener, e.g. a TrainingMetrics or JfrMetricsListener.
+     */
+    public void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The listener set by setMetricsListener(), or null if metrics are disabled.
+     */
+    public MetricsListener getMetricsListener() {
+        return metrics;
+    }
+
+    /**
+     * Pushes a whole batch of inputs through the network at once, computing each layer for every sample as a single
+     * matrix product.
+     * @param inputs The batch of inputs, each of equal size to the input layer.
+     * @return The outputs of the network for each input.
+     */
+    public double[][] calculateBatch(double[][] inputs) {
+        double[][] outputs = new double[inputs.length][network[layers - 1].size];
+        calculateBatch(inputs, outputs);
+        return outputs;
+    }
+
+    /**
+     * Pushes a whole batch of inputs through the network at once, storing the outputs into the given arrays.
+     * @param inputs  The batch of inputs, each of equal size to the input layer.
+     * @param outputs The arrays to store the outputs of each input into, each of equal size to the output layer.
+     */
+    public void calculateBatch(double[][] inputs, double[][] outputs) {
+        MetricsListener metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        int count = inputs.length;
+        BatchWorkspace workspace = batchWorkspace(count);
+        forwardBatch(inputs, 0, count, workspace);
+
+        int size = network[layers - 1].size;
+        double[] values = workspace.values[layers - 1];
+        for (int sample = 0; sample < count; sample++) {
+            System.arraycopy(values, sample * size, outputs[sample], 0, size);
+        }
+        if (metrics != null)
+            metrics.inferenceCompleted(count, System.nanoTime() - start);
+    }
+
+    /**
+     * Performs a single mini-batch update over the given examples. This is equivalent to calling sumError() for each
+     * example followed by backPropSumError(), but computes each layer for the whole batch as a matrix product.
+     * @param inputs         The batch of inputs, each of equal size to the input layer.
+     * @param expectedOutput The values which are expected from the neural network for each input.
+     * @throws IllegalArgumentException Ensure that both arrays are of equal length, and each expected output is equal
+     *                                  in length to the output layer.
+     */
+    public void trainBatch(double[][] inputs, double[][] expectedOutput) {
+        checkBatch(inputs, expectedOutput);
+        if (inputs.length == 0)
+            return;
+        trainBatch(inputs, expectedOutput, 0, inputs.length);
+    }
+
+    /**
+     * Performs a single mini-batch update over the examples <code>[from, to)</code>, which have been checked.
+     */
+    private void trainBatch(double[][] inputs, double[][] expectedOutput, int from, int to) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        // Fetch the workspace first, as growing it also replaces layerGradients.
+        BatchWorkspace workspace = batchWorkspace(to - from);
+        double loss = sumBatchGradients(inputs, expectedOutput, from, to, workspace, layerGradients);
+        errorSum += to - from;
+        sparseSummed = false;
+        if (metrics != null) {
+            pendingLoss += loss;
+            pendingNanos += System.nanoTime() - start;
+        }
+        backPropSumError();
+    }
+
+    /**
+     * Checks that a batch of examples matches the shape of the network.
+     * @param inputs         The batch of inputs.
+     * @param expectedOutput The values which are expected from the neural network for each input.
+     * @throws IllegalArgumentException Thrown if both arrays are not of equal length, or an expected output is not
+     *                                  equal in length to the output layer.
+     */
+    public void checkBatch(double[][] inputs, double[][] expectedOutput) {
+        int size = network[layers - 1].size;
+        if (expectedOutput.length != inputs.length) {
+            throw new IllegalArgumentException("Error: Expected " + inputs.length + " expected outputs, got " +
+                    expectedOutput.length);
+        }
+        for (double[] expected : expectedOutput) {
+            if (expected.length != size)
+                throw outputSizeMismatch(expected.length);
+        }
+    }
+
+    /**
+     * Builds the exception for an expected output of the wrong size. This is kept out of the training methods so the
+     * message is only ever built when it is thrown.
+     */
+    private IllegalArgumentException outputSizeMismatch(int length) {
+        return new IllegalArgumentException("Error: Expected an array equal in size to the output layer, got " +
+                length + " when expecting " + network[layers - 1].size);
+    }
+
+    /**
+     * Pushes the examples <code>[from, to)</code> forward and backward through the network, and adds their
+     * gradients to <code>gradients</code>. The network itself is only read, so several threads may call this at once
+     * as long as each uses its own workspace and gradients.
+     * @param inputs         The batch of inputs.
+     * @param expectedOutput The values which are expected from the neural network for each input.
+     * @param from           The first example to use.
+     * @param to             The index after the last example to use.
+     * @param workspace      The workspace holding the per-sample state, with room for <code>to - from</code> samples.
+     * @param gradients      The gradients to add to.
+     * @return The squared error of each example, summed over the outputs divided by their number, and summed over
+     *         the examples.
+     */
+    public double sumBatchGradients(double[][] inputs, double[][] expectedOutput, int from, int to,
+                                    BatchWorkspace workspace, Gradients gradients) {
+        MetricsListener metrics = this.metrics;
+        int count = to - from;
+        forwardBatch(inputs, from, to, workspace);
+
+        // Calculate output error.
+        Layer output = network[layers - 1];
+        double[] values = workspace.values[layers - 1];
+        double[] derivatives = workspace.derivatives[layers - 1];
+        double[] errors = workspace.errors[layers - 1];
+        double loss = 0;
+        for (int sample = 0; sample < count; sample++) {
+            double[] expected = expectedOutput[from + sample];
+            int row = sample * output.size;
+            for (int i = 0; i < output.size; i++) {
+                double error = expected[i] - values[row + i];
+                errors[row + i] = derivatives[row + i] * error;
+                loss += error * error;
+            }
+        }
+
+        // Calculate the error of each hidden layer and sum the gradients of the batch.
+        for (int i = layers - 1; i > 0; i--) {
+            long layerStart = metrics == null ? 0 : System.nanoTime();
+            if (i > 1) {
+                network[i - 1].backPropagateErrorsBatch(network[i], workspace.errors[i], workspace.errors[i - 1],
+                        workspace.derivatives[i - 1], count);
+            }
+            network[i].sumGradientsBatch(workspace.errors[i], workspace.values[i - 1], count,
+                    gradients.weights[i], gradients.biases[i]);
+            if (metrics != null)
+                metrics.layerBackward(i, count, System.nanoTime() - layerStart);
+        }
+        return loss / output.size;
+    }
+
+    /**
+     * Applies gradients summed outside of the network, in the same way backPropSumError() applies those summed by
+     * sumError(), and then resets them.
+     * @param gradients The summed gradients.
+     * @param examples  The number of examples the gradients were summed over.
+     */
+    public void applyGradients(Gradients gradients, int examples) {
+        if (examples == 0)
+            return;
+        MetricsListener metrics = this.metrics;
+        double scale = learningRate / examples;
+        for (int i = layers - 1; i > 0; i--) {
+            if (optimizer != null) {
+                double magnitude = optimizer.update(i, network[i], gradients.weights[i], gradients.biases[i],
+                        learningRate, examples);
+                if (metrics != null)
+                    metrics.weightsUpdated(i, magnitude);
+                continue;
+            }
+            if (metrics != null)
+                metrics.weightsUpdated(i, updateMagnitude(scale, gradients.weights[i], gradients.biases[i]));
+            network[i].applyGradients(scale, gradients.weights[i], gradients.biases[i]);
+        }
+        version++;
+    }
+
+    /**
+     * Copies the inputs <code>[from, to)</code> into the input rows of the workspace and pushes them through every
+     * layer.
+     */
+    private void forwardBatch(double[][] inputs, int from, int to, BatchWorkspace workspace) {
+        int count = to - from;
+        int size = network[0].size;
+        double[] values = workspace.values[0];
+        for (int sample = 0; sample < count; sample++) {
+            System.arraycopy(inputs[from + sample], 0, values, sample * size, size);
+        }
+
+        MetricsListener metrics = this.metrics;
+        for (int layer = 1; layer < layers; layer++) {
+            long start = metrics == null ? 0 : System.nanoTime();
+            network[layer].calculateBatch(workspace.values[layer - 1], workspace.values[layer],
+                    workspace.derivatives[layer], count);
+            if (metrics != null)
+                metrics.layerForward(layer, count, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return This network's batch workspace, grown if it cannot hold <code>count</code> samples.
+     */
+    private BatchWorkspace batchWorkspace(int count) {
+        if (batch == null || !batch.fits(network, count)) {
+            batch = new BatchWorkspace(network, Math.max(count, batch == null ? 0 : batch.capacity));
+            layerGradients = Gradients.of(network);
+        }
+        return batch;
+    }
+
+    /**
+     * Prunes every weight whose magnitude is below the threshold, in every layer. Pruned weights are zeroed and stay
+     * zero through any further training, so the network can be fine-tuned afterwards with fineTune() or any of the
+     * training methods. Pruned layers are saved in a compressed sparse format, and a SparseNetwork computes them
+     * without multiplying the pruned weights.
+     * @param threshold The smallest magnitude of weight to keep.
+     * @return The fraction of all weights pruned.
+     */
+    public double prune(double threshold) {
+        for (int layer = 1; layer < layers; layer++) {
+            network[layer].prune(threshold);
+        }
+        version++;
+        return getSparsity();
+    }
+
+    /**
+     * Prunes the smallest weights of each layer until the given fraction of that layer's weights are pruned, as
+     * prune() does.
+     * @param sparsity The fraction of each layer's weights to prune, [0.0,1.0].
+     * @return The fraction of all weights pruned.
+     */
+    public double pruneToSparsity(double sparsity) {
+        for (int layer = 1; layer < layers; layer++) {
+            network[layer].pruneToSparsity(sparsity);
+        }
+        version++;
+        return getSparsity();
+    }
+
+    /**
+     * @return The fraction of all weights that have been pruned.
+     */
+    public double getSparsity() {
+        long weights = 0;
+        long kept = 0;
+        for (int layer = 1; layer < layers; layer++) {
+            weights += network[layer].weights.length;
+            kept += network[layer].keptWeights();
+        }
+        return weights == 0 ? 0 : 1.0 - (double) kept / weights;
+    }
+
+    /**
+     * Fine-tunes a pruned network with a number of epochs of mini-batch training over the given examples. Pruned
+     * weights stay zero, so the remaining weights learn to make up for them.
+     * @param inputs         The inputs of every example.
+     * @param expectedOutput The values which are expected from the neural network for each input.
+     * @param epochs         The number of passes over the examples.
+     * @param batchSize      The number of examples in each mini-batch.
+     */
+    public void fineTune(double[][] inputs, double[][] expectedOutput, int epochs, int batchSize) {
+        checkBatch(inputs, expectedOutput);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Error: Expected a batch size of at least 1, got " + batchSize);
+        }
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            for (int from = 0; from < inputs.length; from += batchSize) {
+                trainBatch(inputs, expectedOutput, from, Math.min(from + batchSize, inputs.length));
+            }
+            endEpoch();
+        }
     }
 
     /**
@@ -269,29 +1000,33 @@ public class NeuralNetwork {
      * @param activationFunction The new activation function.
      *                           1 - Linear (ReLU)
      *                           2 - Sigmoid
-*                                3 - Sum
+     *                           3 - Sum
      */
     public void setLayerActivation(int layer, int activationFunction) {
-        for (int i = 0; i < neurons[layer].length; i++)
-            neurons[layer][i].setActivationFunction(activationFunction);
+        network[layer].activationFunction = activationFunction;
+        version++;
     }
 
     /**
-     * Save the neural network to a txt file.
+     * Save the neural network to a txt file. Each neuron of a pruned layer lists only its kept weights, as
+     * <code>index:weight</code> pairs.
      * @param fileName     The name of the File to be writen to. Use .txt at the end of the given string.
      * @throws IOException Thrown if the BufferedWriter encounters an error.
      */
     public void saveToFile(String fileName) throws IOException {
         BufferedWriter bw = new BufferedWriter(new FileWriter(fileName));
         StringBuilder data;
-        for (int layer = 0; layer < neurons.length; layer++) {
+        for (int layer = 0; layer < layers; layer++) {
+            Layer current = network[layer];
             data = new StringBuilder();
-            for (int neuron = 0; neuron < neurons[layer].length; neuron++) {
-                data.append(neurons[layer][neuron].activationFunction).append(",").append(neurons[layer][neuron].biasWeight);
-                if (layer > 0) {
-                    for (int weight = 0; weight < neurons[layer][neuron].weights.length; weight++) {
-                        data.append(",").append(neurons[layer][neuron].weights[weight]);
-                    }
+            for (int neuron = 0; neuron < current.size; neuron++) {
+                data.append(current.activationFunction).append(",").append(current.biases[neuron]);
+                int row = neuron * current.inputs;
+                for (int weight = 0; weight < current.inputs; weight++) {
+                    if (current.mask == null)
+                        data.append(",").append(current.weights[row + weight]);
+                    else if (current.mask[row + weight])
+                        data.append(",").append(weight).append(":").append(current.weights[row + weight]);
                 }
                 data.append("|");
             }
@@ -305,64 +1040,94 @@ public class NeuralNetwork {
      * Loads the given file onto the neural network. This will completely overwrite the current neural network with
      * new weights, biases, and neurons - and remove any momentum saved from before.
      * @param fileName     The name of the File to be read from. Use .txt at the end of the given string.
-     * @throws IOException Thrown if the BufferedReader encounters an error.
+     * @throws IOException Thrown if the BufferedReader encounters an error, or the file has a different number of
+     *                     layers to this network.
      */
     public void loadFromFile(String fileName) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(fileName));
-        String layer;
-        String[] neuron;
-        neurons = new Neuron[0][];
-        Neuron[][] temp;
-        int layerIndex = 0;
-        while ((layer = br.readLine()) != null) {
-            neuron = layer.split("\\|");
-            temp = new Neuron[neurons.length][];
-            for (int i = 0; i < neurons.length; i++) {
-                temp[i] = new Neuron[neurons[i].length];
-                for (int j = 0; j < neurons[i].length; j++) {
-                    temp[i][j] = neurons[i][j];
-                }
-            }
+        replaceLayers(readText(fileName, learningRate), fileName);
+    }
 
-            neurons = new Neuron[neurons.length + 1][];
+    /**
+     * Save the neural network to a binary model file, see ModelFile for the format. This is far smaller and faster to
+     * load than saveToFile(), but likewise does not keep any momentum.
+     * @param fileName     The name of the File to be writen to.
+     * @throws IOException Thrown if the file cannot be written.
+     */
+    public void saveBinary(String fileName) throws IOException {
+        ModelFile.write(Path.of(fileName), network, learningRate);
+    }
 
-            for (int i = 0; i < temp.length; i++) {
-                neurons[i] = new Neuron[temp[i].length];
-                for (int j = 0; j < temp[i].length; j++) {
-                    neurons[i][j] = temp[i][j];
-                }
-            }
+    /**
+     * Loads the given binary model file onto the neural network, memory-mapping it and bulk copying each weight block
+     * without any parsing. This will completely overwrite the current neural network's weights and biases.
+     * @param fileName     The name of the File to be read from.
+     * @throws IOException Thrown if the file cannot be read, is not a model file, or has a different number of layers
+     *                     to this network.
+     */
+    public void loadBinary(String fileName) throws IOException {
+        replaceLayers(ModelFile.read(Path.of(fileName), learningRate), fileName);
+    }
 
-            neurons[layerIndex] = new Neuron[neuron.length];
+    /**
+     * Reads the layers of a file written by saveToFile().
+     * @param fileName     The name of the File to be read from.
+     * @param learningRate The starting learning rate of each neuron.
+     * @return The layers stored in the file.
+     * @throws IOException Thrown if the BufferedReader encounters an error.
+     */
+    public static Layer[] readText(String fileName, double learningRate) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(fileName));
+        List<Layer> loaded = new ArrayList<>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] neuron = line.split("\\|");
+            int inputs = loaded.isEmpty() ? 0 : loaded.get(loaded.size() - 1).size;
+            Layer layer = null;
             for (int i = 0; i < neuron.length; i++) {
-                for (int cursor = 0; cursor < neuron[i].length(); cursor++) {
-
-                    if (layerIndex == 0) {
-                        neurons[layerIndex][i] = new Neuron(Integer.parseInt(neuron[i].substring(0, neuron[i].indexOf(","))), learningRate);
-                        neurons[layerIndex][i].biasWeight = Double.parseDouble(neuron[i].substring(neuron[i].indexOf(",") + 1));
+                String[] fields = neuron[i].split(",");
+                if (layer == null) {
+                    layer = new Layer(neuron.length, inputs, Integer.parseInt(fields[0]), learningRate);
+                }
+                layer.biases[i] = Double.parseDouble(fields[1]);
+                int row = i * inputs;
+                if (inputs > 0 && (fields.length != inputs + 2 || fields[2].indexOf(':') >= 0)) {
+                    // A neuron of a pruned layer, listing only its kept weights.
+                    if (layer.mask == null)
+                        layer.mask = new boolean[layer.weights.length];
+                    for (int field = 2; field < fields.length; field++) {
+                        int separator = fields[field].indexOf(':');
+                        int weight = Integer.parseInt(fields[field].substring(0, separator));
+                        layer.weights[row + weight] = Double.parseDouble(fields[field].substring(separator + 1));
+                        layer.mask[row + weight] = true;
                     }
-
-                    else {
-                        neurons[layerIndex][i] = new Neuron(Integer.parseInt(neuron[i].substring(0, neuron[i].indexOf(","))), learningRate);
-                        neuron[i] = neuron[i].substring(neuron[i].indexOf(",") + 1);
-                        neurons[layerIndex][i].biasWeight = Double.parseDouble(neuron[i].substring(0, neuron[i].indexOf(",")));
-                        neuron[i] = neuron[i].substring(neuron[i].indexOf(",") + 1);
-                        String[] weights = neuron[i].split(",");
-                        neurons[layerIndex][i].weights = new double[weights.length];
-                        for (int weightIndex = 0; weightIndex < weights.length; weightIndex++) {
-                            neurons[layerIndex][i].weights[weightIndex] = Double.parseDouble(weights[weightIndex]);
-                        }
-                        neuron[i] = "";
-                        neurons[layerIndex][i].setLastLayer(neurons[layerIndex - 1]);
-                        neurons[layerIndex][i].prevChange = new double[neurons[layerIndex - 1].length];
-                        neurons[layerIndex][i].prevBiasChange = 0;
-                        neurons[layerIndex][i].error = 0;
+                } else {
+                    for (int weight = 0; weight < inputs; weight++) {
+                        layer.weights[row + weight] = Double.parseDouble(fields[weight + 2]);
                     }
                 }
             }
-
-            layerIndex++;
+            loaded.add(layer);
         }
         br.close();
+        return loaded.toArray(new Layer[0]);
+    }
+
+    /**
+     * Replaces this network's layers with ones loaded from a file, resetting any summed error.
+     */
+    private void replaceLayers(Layer[] loaded, String fileName) throws IOException {
+        if (loaded.length != layers) {
+            throw new IOException("Error: Expected " + layers + " layers in " + fileName + ", got " + loaded.length);
+        }
+        network = loaded;
+        if (optimizer != null)
+            optimizer.reset();
+        errorSum = 0;
+        pendingNanos = 0;
+        pendingLoss = 0;
+        version++;
+        sparseInputs = false;
+        batch = null;
+        layerGradients = null;
     }
 }
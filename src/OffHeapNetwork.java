@@ -0,0 +1,406 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A network whose weights and biases live outside of the Java heap, for models too large to keep on it. Each layer is
+ * a single direct buffer holding its biases followed by its row-major weights, as little-endian doubles, exactly as a
+ * dense layer is laid out in a binary model file. The heap only holds the network's small arrays of neuron values,
+ * so heap size and garbage collection pauses stay the same however large the model is, and copying a model is a
+ * single bulk copy per layer.
+ * <p>
+ * A network can be copied from a NeuralNetwork, allocated and initialized directly, or memory-mapped straight from a
+ * binary model file, in which case the weights are paged in from the file as they are used. The memory is released
+ * once the network, and every read-only view of it, is no longer reachable, or when a mapped file is closed by the
+ * operating system.
+ * <pre>
+ * OffHeapNetwork network = OffHeapNetwork.map(Path.of("model.bin"), false);
+ * network.predict(inputs, outputs);
+ * </pre>
+ * Any number of threads may predict at once. train() updates the weights in place, so it must not run alongside
+ * predict() on the same memory; asReadOnly() gives a view that can be handed to other code without letting it train.
+ * Each layer is limited to 2 GB, the largest a single buffer can hold.
+ */
+public class OffHeapNetwork {
+    // The most layers a mapped model file may have, past which its header is assumed to be corrupt.
+    private static final int MAX_LAYERS = 1 << 16;
+
+    // The number of layers, including the input layer.
+    public final int layers;
+    // The learning rate used by train().
+    public double learningRate;
+    private final int[] sizes;
+    private final int[] activationFunctions;
+    // Each layer's biases followed by its weights, [size] then [size][previous size].
+    private final ByteBuffer[] buffers;
+    // The values, derivatives and errors of each layer, used by train().
+    private double[][] values;
+    private double[][] derivatives;
+    private double[][] errors;
+    // The two buffers each thread's hidden layers alternate between in predict().
+    private final ThreadLocal<double[][]> scratch;
+
+    /**
+     * Allocates a network of the same shape as NeuralNetwork, with ReLU hidden layers and a sigmoid output layer. Its
+     * weights are all zero until initialize() is called.
+     * @param inputs       The number of inputs.
+     * @param outputs      The number of outputs.
+     * @param layerNeurons An integer array specifying the number of neurons in each hidden layer.
+     * @param learningRate The learning rate used by train().
+     */
+    public OffHeapNetwork(int inputs, int outputs, int[] layerNeurons, double learningRate) {
+        this(shape(inputs, outputs, layerNeurons), activations(layerNeurons.length + 2), null, learningRate);
+    }
+
+    /**
+     * Copies a network's weights and biases off the heap.
+     * @param network The network to be copied.
+     */
+    public OffHeapNetwork(NeuralNetwork network) {
+        this(sizes(network), activations(network), null, network.learningRate);
+        for (int layer = 0; layer < layers; layer++) {
+            Layer from = network.network[layer];
+            ByteBuffer to = buffers[layer];
+            to.asDoubleBuffer().put(from.biases).put(from.weights);
+        }
+    }
+
+    /**
+     * @param buffers The buffer of each layer, or null to allocate them.
+     */
+    private OffHeapNetwork(int[] sizes, int[] activationFunctions, ByteBuffer[] buffers, double learningRate) {
+        layers = sizes.length;
+        if (layers < 2) {
+            throw new IllegalArgumentException("Error: Expected at least 2 layers, got " + layers);
+        }
+        this.sizes = sizes;
+        this.activationFunctions = activationFunctions;
+        this.learningRate = learningRate;
+        if (buffers == null) {
+            buffers = new ByteBuffer[layers];
+            for (int layer = 0; layer < layers; layer++) {
+                buffers[layer] = ByteBuffer.allocateDirect(Math.toIntExact(layerBytes(layer)))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        this.buffers = buffers;
+        int width = 0;
+        for (int layer = 1; layer < layers - 1; layer++) {
+            width = Math.max(width, sizes[layer]);
+        }
+        int widest = width;
+        scratch = ThreadLocal.withInitial(() -> new double[][] {new double[widest], new double[widest]});
+    }
+
+    /**
+     * Memory-maps the weights of a binary model file written by NeuralNetwork.saveBinary(), without reading them onto
+     * the heap. A writable mapping lets train() update the file in place; see force().
+     * @param path     The file to be mapped.
+     * @param writable True to map the file for reading and writing, false to map it read-only.
+     * @return The mapped network.
+     * @throws IOException Thrown if the file cannot be mapped, is not a valid model file, or has pruned layers, which
+     *                     are stored compressed.
+     */
+    public static OffHeapNetwork map(Path path, boolean writable) throws IOException {
+        try (FileChannel channel = writable ?
+                FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE) :
+                FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, path);
+            int count = ModelFile.checkHeader(header, path);
+            int entry = ModelFile.entrySize(header.getInt(4));
+            int[] sizes = new int[count];
+            int[] activationFunctions = new int[count];
+            for (int layer = 0; layer < count; layer++) {
+                int offset = ModelFile.HEADER + entry * layer;
+                sizes[layer] = header.getInt(offset);
+                if (sizes[layer] < 1) {
+                    throw new IOException("Error: Invalid size " + sizes[layer] + " of layer " + layer + " in " + path);
+                }
+                activationFunctions[layer] = header.getInt(offset + 4);
+                if (activationFunctions[layer] < 1 || activationFunctions[layer] > 3) {
+                    throw new IOException("Error: Invalid activation function " + activationFunctions[layer] +
+                            " of layer " + layer + " in " + path);
+                }
+                if (entry > 8 && header.getInt(offset + 8) != ModelFile.DENSE) {
+                    throw new IOException("Error: Layer " + layer + " of " + path + " is pruned, and only dense " +
+                            "layers can be mapped");
+                }
+            }
+
+            // Map each layer on its own, so no single mapping needs to hold the whole model.
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            long position = header.capacity();
+            for (int layer = 0; layer < count; layer++) {
+                long length = 8L * sizes[layer] * (1 + (layer == 0 ? 0 : sizes[layer - 1]));
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Error: Layer " + layer + " of " + path + " is larger than 2 GB");
+                }
+                if (position + length > channel.size()) {
+                    throw new IOException("Error: Truncated model file " + path);
+                }
+                buffers[layer] = channel.map(mode, position, length).order(ByteOrder.LITTLE_ENDIAN);
+                position += length;
+            }
+            return new OffHeapNetwork(sizes, activationFunctions, buffers, header.getDouble(16));
+        }
+    }
+
+    /**
+     * Reads the fixed header and the per-layer entries of a model file.
+     */
+    private static ByteBuffer readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(ModelFile.HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(fixed, 0);
+        int count = fixed.hasRemaining() ? 0 : fixed.getInt(8);
+        if (count < 2 || count > MAX_LAYERS) {
+            throw new IOException("Error: " + path + " is not a model file");
+        }
+        ByteBuffer header = ByteBuffer.allocate(ModelFile.HEADER + ModelFile.entrySize(fixed.getInt(4)) * count)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        ModelFile.checkHeader(header, path);
+        if (header.hasRemaining()) {
+            throw new IOException("Error: Truncated model file " + path);
+        }
+        return header;
+    }
+
+    /**
+     * Writes the network to a binary model file, which NeuralNetwork.loadBinary() and map() can read. The weights are
+     * written straight from their buffers.
+     * @param path The file to be written to.
+     * @throws IOException Thrown if the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(ModelFile.HEADER + ModelFile.entrySize(1) * layers)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(ModelFile.MAGIC).putInt(1).putInt(layers).putInt(0).putDouble(learningRate);
+            for (int layer = 0; layer < layers; layer++) {
+                header.putInt(sizes[layer]).putInt(activationFunctions[layer]);
+            }
+            header.flip();
+            ModelFile.writeFully(channel, header);
+            for (ByteBuffer buffer : buffers) {
+                ModelFile.writeFully(channel, buffer.duplicate().clear());
+            }
+        }
+    }
+
+    /**
+     * Writes any changes made by train() to a writable mapping back to its file. Does nothing for other networks.
+     */
+    public void force() {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer instanceof MappedByteBuffer && !buffer.isReadOnly())
+                ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * @return A view of this network sharing its memory, which predicts with the current weights but cannot train.
+     */
+    public OffHeapNetwork asReadOnly() {
+        ByteBuffer[] views = new ByteBuffer[layers];
+        for (int layer = 0; layer < layers; layer++) {
+            views[layer] = buffers[layer].asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new OffHeapNetwork(sizes, activationFunctions, views, learningRate);
+    }
+
+    /**
+     * @return A copy of this network on the heap.
+     */
+    public NeuralNetwork toNeuralNetwork() {
+        Layer[] network = new Layer[layers];
+        for (int layer = 0; layer < layers; layer++) {
+            Layer current = new Layer(sizes[layer], layer == 0 ? 0 : sizes[layer - 1], activationFunctions[layer],
+                    learningRate);
+            buffers[layer].asDoubleBuffer().get(current.biases).get(current.weights);
+            network[layer] = current;
+        }
+        return new NeuralNetwork(network, learningRate);
+    }
+
+    /**
+     * Establishes random weights and biases for every layer, [-1.0,1.0], as NeuralNetwork.initialize() does.
+     * @param random The source of the random weights.
+     */
+    public void initialize(Random random) {
+        for (int layer = 1; layer < layers; layer++) {
+            ByteBuffer buffer = buffers[layer];
+            int size = sizes[layer];
+            int weights = size * sizes[layer - 1];
+            // Draw the weights before the biases, in the same order as Layer.initialize().
+            for (int i = 0; i < weights; i++) {
+                buffer.putDouble((size + i) << 3, (random.nextDouble() - 0.5) * 2.0);
+            }
+            for (int n = 0; n < size; n++) {
+                buffer.putDouble(n << 3, (random.nextDouble() - 0.5) * 2.0);
+            }
+        }
+    }
+
+    /**
+     * Calculates the outputs of the network for the given inputs without changing any of its state, so any number of
+     * threads may predict at once.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IllegalArgumentException Ensure that both arrays are equal in length to their layers.
+     */
+    public void predict(double[] inputs, double[] outputs) {
+        check(inputs, outputs);
+        double[][] state = scratch.get();
+        double[] last = inputs;
+        for (int layer = 1; layer < layers; layer++) {
+            double[] results = layer == layers - 1 ? outputs : state[layer & 1];
+            forward(layer, last, results, null);
+            last = results;
+        }
+    }
+
+    /**
+     * Trains the network on a single example, updating the weights in place as NeuralNetwork.trainBatch() does for a
+     * batch of one example with no optimizer.
+     * @param inputs         The array of doubles representing data, of equal size to the input layer.
+     * @param expectedOutput The values which are expected from the neural network.
+     * @throws IllegalArgumentException Ensure that both arrays are equal in length to their layers.
+     * @throws IllegalStateException    Thrown if the network is read-only, such as a read-only mapping.
+     */
+    public void train(double[] inputs, double[] expectedOutput) {
+        check(inputs, expectedOutput);
+        if (buffers[1].isReadOnly()) {
+            throw new IllegalStateException("Error: The network is read-only and cannot be trained");
+        }
+        if (values == null) {
+            values = new double[layers][];
+            derivatives = new double[layers][];
+            errors = new double[layers][];
+            for (int layer = 1; layer < layers; layer++) {
+                values[layer] = new double[sizes[layer]];
+                derivatives[layer] = new double[sizes[layer]];
+                errors[layer] = new double[sizes[layer]];
+            }
+        }
+        values[0] = inputs;
+        for (int layer = 1; layer < layers; layer++) {
+            forward(layer, values[layer - 1], values[layer], derivatives[layer]);
+        }
+        int last = layers - 1;
+        for (int n = 0; n < sizes[last]; n++) {
+            errors[last][n] = derivatives[last][n] * (expectedOutput[n] - values[last][n]);
+        }
+
+        // Working back from the output layer, compute the errors of the layer below from the weights before they are
+        // updated, and then update them.
+        Kernels kernels = Kernels.INSTANCE;
+        for (int layer = last; layer > 0; layer--) {
+            ByteBuffer buffer = buffers[layer];
+            int size = sizes[layer];
+            int inputCount = sizes[layer - 1];
+            double[] layerErrors = errors[layer];
+            if (layer > 1) {
+                double[] previous = errors[layer - 1];
+                Arrays.fill(previous, 0.0);
+                for (int n = 0; n < size; n++) {
+                    kernels.axpy(layerErrors[n], buffer, size + n * inputCount, previous, 0, inputCount);
+                }
+                double[] previousDerivatives = derivatives[layer - 1];
+                for (int j = 0; j < inputCount; j++) {
+                    previous[j] *= previousDerivatives[j];
+                }
+            }
+            double[] lastValues = values[layer - 1];
+            for (int n = 0; n < size; n++) {
+                double change = learningRate * layerErrors[n];
+                buffer.putDouble(n << 3, buffer.getDouble(n << 3) + change);
+                kernels.axpy(change, lastValues, 0, buffer, size + n * inputCount, inputCount);
+            }
+        }
+        values[0] = null;
+    }
+
+    /**
+     * Computes a layer's values, and their derivatives if an array is given, from the previous layer's values.
+     */
+    private void forward(int layer, double[] lastValues, double[] results, double[] layerDerivatives) {
+        Kernels kernels = Kernels.INSTANCE;
+        ByteBuffer buffer = buffers[layer];
+        int size = sizes[layer];
+        int inputCount = sizes[layer - 1];
+        for (int n = 0; n < size; n++) {
+            results[n] = buffer.getDouble(n << 3) + kernels.dot(lastValues, 0, buffer, size + n * inputCount,
+                    inputCount);
+        }
+        switch (activationFunctions[layer]) {
+            case 1 -> kernels.relu(results, layerDerivatives, 0, size);
+            case 2 -> kernels.sigmoid(results, layerDerivatives, 0, size);
+            case 3 -> {
+                if (layerDerivatives != null)
+                    Arrays.fill(layerDerivatives, 0, size, 1.0);
+            }
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunctions[layer]);
+        }
+    }
+
+    private void check(double[] inputs, double[] outputs) {
+        if (inputs.length != sizes[0]) {
+            throw new IllegalArgumentException("Error: Expected an array equal in size to the input layer, got " +
+                    inputs.length + " when expecting " + sizes[0]);
+        }
+        if (outputs.length != sizes[layers - 1]) {
+            throw new IllegalArgumentException("Error: Expected an array equal in size to the output layer, got " +
+                    outputs.length + " when expecting " + sizes[layers - 1]);
+        }
+    }
+
+    /**
+     * @return The number of bytes of weights and biases held off the heap.
+     */
+    public long weightBytes() {
+        long bytes = 0;
+        for (int layer = 0; layer < layers; layer++) {
+            bytes += layerBytes(layer);
+        }
+        return bytes;
+    }
+
+    private long layerBytes(int layer) {
+        return 8L * sizes[layer] * (1 + (layer == 0 ? 0 : sizes[layer - 1]));
+    }
+
+    private static int[] shape(int inputs, int outputs, int[] layerNeurons) {
+        int[] sizes = new int[layerNeurons.length + 2];
+        sizes[0] = inputs;
+        System.arraycopy(layerNeurons, 0, sizes, 1, layerNeurons.length);
+        sizes[sizes.length - 1] = outputs;
+        return sizes;
+    }
+
+    /**
+     * @return The activation functions NeuralNetwork gives its layers: none, then ReLU, then sigmoid for the output.
+     */
+    private static int[] activations(int layers) {
+        int[] activationFunctions = new int[layers];
+        Arrays.fill(activationFunctions, 1);
+        activationFunctions[0] = 3;
+        activationFunctions[layers - 1] = 2;
+        return activationFunctions;
+    }
+
+    private static int[] sizes(NeuralNetwork network) {
+        return Arrays.stream(network.network).mapToInt(layer -> layer.size).toArray();
+    }
+
+    private static int[] activations(NeuralNetwork network) {
+        return Arrays.stream(network.network).mapToInt(layer -> layer.activationFunction).toArray();
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+/**
+ * Updates a network's weights and biases from their summed gradients. Set one with NeuralNetwork.setOptimizer(); a
+ * network without one uses plain stochastic gradient descent. Each optimizer keeps its state, such as the velocity of
+ * every weight, in flat arrays shaped like each layer's weights and biases, and updates a layer in a single fused pass
+ * over its values, gradients and state, see the update kernels of Kernels.
+ * <p>
+ * The state follows the weights of the network it was set on, so an optimizer must not be shared between networks.
+ */
+public abstract class Optimizer {
+    // The number of state arrays kept for each weight and bias.
+    private final int slots;
+    // The state of each layer's weights and biases, [layer][slot][parameter], allocated on the layer's first update.
+    private double[][][] weightState = new double[0][][];
+    private double[][][] biasState = new double[0][][];
+    // The number of updates made to each layer.
+    private long[] steps = new long[0];
+
+    /**
+     * @param slots The number of state arrays kept for each weight and bias.
+     */
+    protected Optimizer(int slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Applies the summed gradients of a layer to its weights and biases, and then resets them. Pruned weights stay
+     * zero.
+     * @param index           The index of the layer in its network.
+     * @param layer           The layer to be updated.
+     * @param weightGradients The summed weight gradients, row-major [size][inputs].
+     * @param biasGradients   The summed bias gradients.
+     * @param learningRate    The learning rate of the network.
+     * @param examples        The number of examples the gradients were summed over.
+     * @return The norm of the change made to the layer's weights and biases.
+     */
+    public double update(int index, Layer layer, double[] weightGradients, double[] biasGradients, double learningRate,
+                         int examples) {
+        if (index >= steps.length) {
+            weightState = Arrays.copyOf(weightState, index + 1);
+            biasState = Arrays.copyOf(biasState, index + 1);
+            steps = Arrays.copyOf(steps, index + 1);
+        }
+        if (weightState[index] == null || weightState[index][0].length != layer.weights.length ||
+                biasState[index][0].length != layer.size) {
+            weightState[index] = new double[slots][layer.weights.length];
+            biasState[index] = new double[slots][layer.size];
+            steps[index] = 0;
+        }
+        long step = ++steps[index];
+        double scale = 1.0 / examples;
+        double sum = update(layer.weights, weightGradients, weightState[index], layer.weights.length, learningRate,
+                scale, step);
+        sum += update(layer.biases, biasGradients, biasState[index], layer.size, learningRate, scale, step);
+        layer.applyMask();
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Applies a single update to <code>values[0, length)</code> in one pass, and resets the gradients to 0.
+     * @param values       The weights or biases to be updated.
+     * @param gradients    Their summed gradients, pointing in the direction that lowers the loss.
+     * @param state        The optimizer's state arrays for the values.
+     * @param length       The number of values.
+     * @param learningRate The learning rate of the network.
+     * @param scale        The factor the summed gradients are multiplied by, 1 / examples.
+     * @param step         The number of updates made to this layer, including this one.
+     * @return The sum of the squared changes made to the values.
+     */
+    protected abstract double update(double[] values, double[] gradients, double[][] state, int length,
+                                     double learningRate, double scale, long step);
+
+    /**
+     * @return The number of state arrays kept for each weight and bias.
+     */
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * Copies the state of every layer into <code>state</code>, reusing its arrays where they are the right size, so
+     * taking a snapshot every so often does not allocate.
+     * @param state The copy to be overwritten.
+     */
+    public void saveState(State state) {
+        int layers = steps.length;
+        if (state.steps.length != layers) {
+            state.steps = new long[layers];
+            state.weights = new double[layers][][];
+            state.biases = new double[layers][][];
+        }
+        System.arraycopy(steps, 0, state.steps, 0, layers);
+        for (int layer = 0; layer < layers; layer++) {
+            state.weights[layer] = copy(weightState[layer], state.weights[layer]);
+            state.biases[layer] = copy(biasState[layer], state.biases[layer]);
+        }
+    }
+
+    /**
+     * Replaces the state of every layer with a copy of <code>state</code>, e.g. to resume training from a checkpoint.
+     * @param state The state to be copied, taken from an optimizer of the same kind.
+     * @throws IllegalArgumentException Thrown if the state does not keep as many arrays per weight as this optimizer.
+     */
+    public void restoreState(State state) {
+        int layers = state.steps.length;
+        for (int layer = 0; layer < layers; layer++) {
+            if (state.weights[layer] != null && state.weights[layer].length != slots ||
+                    state.biases[layer] != null && state.biases[layer].length != slots) {
+                throw new IllegalArgumentException("Error: Expected optimizer state with " + slots +
+                        " arrays per weight in layer " + layer);
+            }
+        }
+        steps = state.steps.clone();
+        weightState = new double[layers][][];
+        biasState = new double[layers][][];
+        for (int layer = 0; layer < layers; layer++) {
+            weightState[layer] = copy(state.weights[layer], null);
+            biasState[layer] = copy(state.biases[layer], null);
+        }
+    }
+
+    /**
+     * @return <code>from</code> copied into <code>to</code>, or into new arrays if <code>to</code> is not the same
+     *         size, or null if <code>from</code> is.
+     */
+    private static double[][] copy(double[][] from, double[][] to) {
+        if (from == null)
+            return null;
+        if (to == null || to.length != from.length || to[0].length != from[0].length)
+            to = new double[from.length][from[0].length];
+        for (int slot = 0; slot < from.length; slot++) {
+            System.arraycopy(from[slot], 0, to[slot], 0, from[slot].length);
+        }
+        return to;
+    }
+
+    /**
+     * Forgets the state of every layer, e.g. after the network's weights are replaced.
+     */
+    public void reset() {
+        weightState = new double[0][][];
+        biasState = new double[0][][];
+        steps = new long[0];
+    }
+
+    /**
+     * A copy of an optimizer's state, e.g. for a checkpoint.
+     */
+    public static class State {
+        // The number of updates made to each layer.
+        public long[] steps = new long[0];
+        // The state of each layer's weights and biases, [layer][slot][parameter], or null for a layer not yet updated.
+        public double[][][] weights = new double[0][][];
+        public double[][][] biases = new double[0][][];
+    }
+}
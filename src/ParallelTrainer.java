@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a NeuralNetwork on mini-batches split across several threads. Each batch is cut into a fixed number of
+ * contiguous shards; every shard is pushed through the network with its own workspace and summed into its own private
+ * gradients, and the shards' gradients are then reduced in a fixed order and applied as backPropSumError() would.
+ * Because the shards and the reduction order only depend on the shard count, a given shard count gives the same
+ * result no matter how many threads execute it.
+ */
+public class ParallelTrainer implements AutoCloseable {
+    // The number of weights summed by each reduction task.
+    private static final int REDUCE_CHUNK = 1 << 14;
+
+    private final NeuralNetwork network;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int shards;
+    private final BatchWorkspace[] workspaces;
+    private final Gradients[] gradients;
+    // Every shard's gradients but the first, which are reduced into it.
+    private Gradients[] others;
+    // The squared error summed by each shard, added up in shard order for the metrics listener.
+    private final double[] losses;
+
+    /**
+     * Creates a trainer running on its own fork-join pool, with one shard per thread.
+     * @param network The network to be trained.
+     * @param threads The number of threads to train with. Use 1 for reproducible single-threaded training.
+     */
+    public ParallelTrainer(NeuralNetwork network, int threads) {
+        this(network, new ForkJoinPool(threads), threads, true);
+    }
+
+    /**
+     * Creates a trainer running on the given executor, which is left open when the trainer is closed.
+     * @param network  The network to be trained.
+     * @param executor The executor that runs the shards.
+     * @param shards   The number of shards each batch is split into.
+     */
+    public ParallelTrainer(NeuralNetwork network, ExecutorService executor, int shards) {
+        this(network, executor, shards, false);
+    }
+
+    private ParallelTrainer(NeuralNetwork network, ExecutorService executor, int shards, boolean ownsExecutor) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Error: Expected at least 1 shard, got " + shards);
+        }
+        this.network = network;
+        this.executor = executor;
+        this.shards = shards;
+        this.ownsExecutor = ownsExecutor;
+        workspaces = new BatchWorkspace[shards];
+        gradients = new Gradients[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            gradients[shard] = new Gradients(network.network);
+        }
+        others = Arrays.copyOfRange(gradients, 1, shards);
+        losses = new double[shards];
+    }
+
+    /**
+     * Performs a single mini-batch update over the given examples, split across the trainer's shards.
+     * @param inputs         The batch of inputs, each of equal size to the input layer.
+     * @param expectedOutput The values which are expected from the neural network for each input.
+     * @throws Exception     Thrown if a shard fails, or an IllegalArgumentException if the batch does not match the
+     *                       network.
+     */
+    public void trainBatch(double[][] inputs, double[][] expectedOutput) throws Exception {
+        network.checkBatch(inputs, expectedOutput);
+        int count = inputs.length;
+        if (count == 0)
+            return;
+        MetricsListener metrics = network.getMetricsListener();
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        // Loading a file can change the network's shape, so rebuild the gradients if they no longer fit it.
+        if (!gradients[0].fits(network.network)) {
+            for (int shard = 0; shard < shards; shard++) {
+                gradients[shard] = new Gradients(network.network);
+            }
+            others = Arrays.copyOfRange(gradients, 1, shards);
+        }
+        try {
+            sumAndApply(inputs, expectedOutput, count);
+        } catch (Throwable e) {
+            // Discard whatever the shards summed before the failure, so it is not applied with the next batch.
+            for (Gradients shardGradients : gradients) {
+                shardGradients.clear();
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            double loss = 0;
+            for (double shardLoss : losses) {
+                loss += shardLoss;
+            }
+            network.recordBatch(count, System.nanoTime() - startTime, loss);
+        }
+    }
+
+    /**
+     * Sums the gradients of every shard of the batch, reduces them into the first shard's and applies them.
+     */
+    private void sumAndApply(double[][] inputs, double[][] expectedOutput, int count) throws Exception {
+        // Push each shard forward and backward into its own gradients.
+        List<Callable<Void>> tasks = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int from = (int) ((long) count * shard / shards);
+            int to = (int) ((long) count * (shard + 1) / shards);
+            losses[shard] = 0;
+            if (from == to)
+                continue;
+            int index = shard;
+            if (workspaces[index] == null || !workspaces[index].fits(network.network, to - from)) {
+                workspaces[index] = new BatchWorkspace(network.network, to - from);
+            }
+            tasks.add(() -> {
+                losses[index] = network.sumBatchGradients(inputs, expectedOutput, from, to, workspaces[index],
+                        gradients[index]);
+                return null;
+            });
+        }
+        run(tasks);
+
+        // Reduce every shard into the first, in shard order.
+        if (shards > 1) {
+            tasks.clear();
+            Layer[] layers = network.network;
+            for (int layer = 1; layer < layers.length; layer++) {
+                int index = layer;
+                int length = layers[layer].weights.length;
+                for (int from = 0; from < length; from += REDUCE_CHUNK) {
+                    int start = from;
+                    int end = Math.min(from + REDUCE_CHUNK, length);
+                    tasks.add(() -> {
+                        gradients[0].collectWeights(others, index, start, end);
+                        return null;
+                    });
+                }
+                tasks.add(() -> {
+                    gradients[0].collectBiases(others, index);
+                    return null;
+                });
+            }
+            run(tasks);
+        }
+
+        network.applyGradients(gradients[0], count);
+    }
+
+    /**
+     * Runs every task on the executor and waits for all of them, rethrowing the first failure.
+     */
+    private void run(List<Callable<Void>> tasks) throws Exception {
+        List<Future<Void>> futures = executor.invokeAll(tasks);
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause)
+                    throw cause;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Shuts down the trainer's fork-join pool, if it created one.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor)
+            executor.shutdown();
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * How closely a QuantizedNetwork matches the double network it was quantized from, as returned by
+ * QuantizedNetwork.compare().
+ */
+public class QuantizationReport {
+    // The number of examples compared.
+    public final int examples;
+    // The largest difference between any two outputs.
+    public final double maxError;
+    // The mean absolute difference between outputs.
+    public final double meanError;
+    // The root mean squared difference between outputs.
+    public final double rmsError;
+    // The fraction of examples where both networks' largest output is the same one.
+    public final double agreement;
+    // The bytes taken by the quantized weights.
+    public final long quantizedBytes;
+    // The bytes taken by the same weights as doubles.
+    public final long doubleBytes;
+
+    public QuantizationReport(int examples, double maxError, double meanError, double rmsError, double agreement,
+                              long quantizedBytes, long doubleBytes) {
+        this.examples = examples;
+        this.maxError = maxError;
+        this.meanError = meanError;
+        this.rmsError = rmsError;
+        this.agreement = agreement;
+        this.quantizedBytes = quantizedBytes;
+        this.doubleBytes = doubleBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Examples: %d | Max Error: %.6f | Mean Error: %.6f | RMS Error: %.6f | " +
+                        "Agreement: %.2f%% | Weights: %d bytes (%d as doubles)", examples, maxError, meanError,
+                rmsError, agreement * 100, quantizedBytes, doubleBytes);
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * An inference-only int8 copy of a trained NeuralNetwork. Each row of weights is stored as bytes with its own scale,
+ * and each layer's inputs are quantized with a single scale calibrated on a sample dataset. Every layer is computed as
+ * an integer dot product, which is then dequantized and has the bias and activation function applied in double
+ * precision, exactly as Layer.activate() would. Weights take an eighth of the memory of the double model.
+ * <p>
+ * Weights and the network's inputs are quantized symmetrically to [-127,127]. The outputs of ReLU and sigmoid layers
+ * are never negative, so the layers after them quantize their inputs to the full unsigned range [0,255] instead,
+ * stored offset by -128 so they fit a byte, and add the offset back through each row's sum of quantized weights.
+ * <pre>
+ * QuantizedNetwork quantized = new QuantizedNetwork(nn, calibrationInputs);
+ * System.out.println(quantized.compare(nn, testInputs));
+ * quantized.predict(inputs, outputs);
+ * </pre>
+ */
+public class QuantizedNetwork {
+    // The largest magnitude of a quantized value, leaving -128 unused so the range is symmetric.
+    private static final int LEVELS = 127;
+    // The largest unsigned quantized value, and the offset it is stored with to fit a byte.
+    private static final int UNSIGNED_LEVELS = 255;
+    private static final int ZERO_POINT = 128;
+    // The widest layer input whose integer dot product cannot overflow an int.
+    private static final int MAX_INPUTS = Integer.MAX_VALUE / (ZERO_POINT * LEVELS);
+
+    public final int layers;
+    // The number of neurons in each layer.
+    private final int[] sizes;
+    // The activation function of each layer.
+    private final int[] activationFunctions;
+    // The quantized weights of each layer, row-major [size][inputs].
+    private final byte[][] weights;
+    // The scale of each row of weights, so weight = weights[n][i] * weightScales[n].
+    private final double[][] weightScales;
+    // The bias of each neuron, kept in double.
+    private final double[][] biases;
+    // The scale each layer's inputs are quantized with, so input = quantized * inputScales[layer].
+    private final double[] inputScales;
+    // Whether each layer's inputs are never negative, and so are quantized unsigned.
+    private final boolean[] unsignedInputs;
+    // The sum of each row of quantized weights of layers with unsigned inputs, which undoes the ZERO_POINT offset.
+    private final int[][] rowSums;
+    // The scratch state of each thread predicting with this network.
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Quantizes a trained network, calibrating the scale of each layer's inputs on the given examples.
+     * @param network     The trained network, which is only read.
+     * @param calibration Sample inputs representative of those the network will see.
+     */
+    public QuantizedNetwork(NeuralNetwork network, double[][] calibration) {
+        if (calibration.length == 0) {
+            throw new IllegalArgumentException("Error: Expected at least one calibration example");
+        }
+        Layer[] source = network.network;
+        layers = source.length;
+        sizes = new int[layers];
+        activationFunctions = new int[layers];
+        weights = new byte[layers][];
+        weightScales = new double[layers][];
+        biases = new double[layers][];
+        inputScales = new double[layers];
+        unsignedInputs = new boolean[layers];
+        rowSums = new int[layers][];
+        for (int layer = 0; layer < layers; layer++) {
+            sizes[layer] = source[layer].size;
+            activationFunctions[layer] = source[layer].activationFunction;
+        }
+        for (int layer = 1; layer < layers; layer++) {
+            int previous = activationFunctions[layer - 1];
+            unsignedInputs[layer] = layer > 1 && (previous == 1 || previous == 2);
+        }
+
+        // Quantize each row of weights to its own scale.
+        for (int layer = 1; layer < layers; layer++) {
+            Layer current = source[layer];
+            if (current.inputs > MAX_INPUTS) {
+                throw new IllegalArgumentException("Error: Layer " + layer + " has " + current.inputs +
+                        " inputs, more than the " + MAX_INPUTS + " an int8 dot product can sum");
+            }
+            weights[layer] = new byte[current.weights.length];
+            weightScales[layer] = new double[current.size];
+            biases[layer] = current.biases.clone();
+            for (int n = 0; n < current.size; n++) {
+                int row = n * current.inputs;
+                double scale = scale(current.weights, row, row + current.inputs);
+                weightScales[layer][n] = scale;
+                quantize(current.weights, row, weights[layer], row, current.inputs, scale);
+            }
+            if (unsignedInputs[layer]) {
+                rowSums[layer] = new int[current.size];
+                for (int i = 0; i < current.weights.length; i++) {
+                    rowSums[layer][i / current.inputs] += weights[layer][i];
+                }
+            }
+        }
+
+        // Calibrate the scale of each layer's inputs on the largest value the double network produces.
+        double[] largest = new double[layers];
+        double[][] values = new double[layers][];
+        for (int layer = 0; layer < layers; layer++) {
+            values[layer] = new double[sizes[layer]];
+        }
+        for (double[] example : calibration) {
+            System.arraycopy(example, 0, values[0], 0, sizes[0]);
+            for (int layer = 1; layer < layers; layer++) {
+                source[layer].predict(values[layer - 1], values[layer]);
+            }
+            for (int layer = 0; layer < layers - 1; layer++) {
+                for (double value : values[layer]) {
+                    largest[layer + 1] = Math.max(largest[layer + 1], Math.abs(value));
+                }
+            }
+        }
+        for (int layer = 1; layer < layers; layer++) {
+            int levels = unsignedInputs[layer] ? UNSIGNED_LEVELS : LEVELS;
+            inputScales[layer] = largest[layer] == 0 ? 1.0 : largest[layer] / levels;
+        }
+
+        scratch = ThreadLocal.withInitial(() -> new Scratch(sizes));
+    }
+
+    /**
+     * Calculates the outputs of the network for the given inputs. Any number of threads may predict at once.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IllegalArgumentException Ensure that both arrays are equal in length to their layers.
+     */
+    public void predict(double[] inputs, double[] outputs) {
+        if (inputs.length != sizes[0]) {
+            throw new IllegalArgumentException("Error: Expected an array equal in size to the input layer, got " +
+                    inputs.length + " when expecting " + sizes[0]);
+        }
+        if (outputs.length != sizes[layers - 1]) {
+            throw new IllegalArgumentException("Error: Expected an array equal in size to the output layer, got " +
+                    outputs.length + " when expecting " + sizes[layers - 1]);
+        }
+        Scratch state = scratch.get();
+        Kernels kernels = Kernels.INSTANCE;
+        double[] last = inputs;
+        for (int layer = 1; layer < layers; layer++) {
+            int inputsSize = sizes[layer - 1];
+            byte[] quantized = state.quantized;
+            int[] sums = rowSums[layer];
+            if (sums == null)
+                quantize(last, 0, quantized, 0, inputsSize, inputScales[layer]);
+            else
+                quantizeUnsigned(last, quantized, inputsSize, inputScales[layer]);
+
+            double[] values = layer == layers - 1 ? outputs : state.values[layer];
+            byte[] layerWeights = weights[layer];
+            double[] scales = weightScales[layer];
+            double[] layerBiases = biases[layer];
+            double inputScale = inputScales[layer];
+            for (int n = 0; n < sizes[layer]; n++) {
+                long sum = kernels.dot(quantized, 0, layerWeights, n * inputsSize, inputsSize);
+                if (sums != null)
+                    sum += (long) ZERO_POINT * sums[n];
+                values[n] = sum * scales[n] * inputScale + layerBiases[n];
+            }
+            activate(activationFunctions[layer], values, sizes[layer]);
+            last = values;
+        }
+    }
+
+    /**
+     * Compares the outputs of this network against those of the network it was quantized from.
+     * @param network  The double network to compare against.
+     * @param examples The inputs to compare on, ideally not those used for calibration.
+     * @return The differences between the two networks' outputs.
+     */
+    public QuantizationReport compare(NeuralNetwork network, double[][] examples) {
+        int outputs = sizes[layers - 1];
+        double[] expected = new double[outputs];
+        double[] actual = new double[outputs];
+        double maxError = 0;
+        double absoluteError = 0;
+        double squaredError = 0;
+        int agreements = 0;
+        for (double[] example : examples) {
+            network.predict(example, expected);
+            predict(example, actual);
+            for (int i = 0; i < outputs; i++) {
+                double error = Math.abs(actual[i] - expected[i]);
+                maxError = Math.max(maxError, error);
+                absoluteError += error;
+                squaredError += error * error;
+            }
+            if (argmax(expected) == argmax(actual))
+                agreements++;
+        }
+        long values = (long) examples.length * outputs;
+        return new QuantizationReport(examples.length, maxError, absoluteError / values,
+                Math.sqrt(squaredError / values), (double) agreements / examples.length, weightBytes(),
+                8L * weightBytes());
+    }
+
+    /**
+     * @return The number of bytes taken by the quantized weights.
+     */
+    public long weightBytes() {
+        long bytes = 0;
+        for (int layer = 1; layer < layers; layer++) {
+            bytes += weights[layer].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The scale that maps the largest magnitude in <code>values[from, to)</code> onto the int8 range.
+     */
+    private static double scale(double[] values, int from, int to) {
+        double largest = 0;
+        for (int i = from; i < to; i++) {
+            largest = Math.max(largest, Math.abs(values[i]));
+        }
+        return largest == 0 ? 1.0 : largest / LEVELS;
+    }
+
+    /**
+     * Rounds <code>values / scale</code> to the nearest int8, clamped to the symmetric range.
+     */
+    private static void quantize(double[] values, int from, byte[] quantized, int to, int length, double scale) {
+        double inverse = 1.0 / scale;
+        for (int i = 0; i < length; i++) {
+            long level = Math.round(values[from + i] * inverse);
+            quantized[to + i] = (byte) Math.max(-LEVELS, Math.min(LEVELS, level));
+        }
+    }
+
+    /**
+     * Rounds <code>values / scale</code> to the nearest unsigned level, clamped to [0,255], and stores it offset by
+     * -ZERO_POINT.
+     */
+    private static void quantizeUnsigned(double[] values, byte[] quantized, int length, double scale) {
+        double inverse = 1.0 / scale;
+        for (int i = 0; i < length; i++) {
+            long level = Math.round(values[i] * inverse);
+            quantized[i] = (byte) (Math.max(0, Math.min(UNSIGNED_LEVELS, level)) - ZERO_POINT);
+        }
+    }
+
+    private static void activate(int activationFunction, double[] values, int size) {
+        switch (activationFunction) {
+            case 1 -> Kernels.INSTANCE.relu(values, null, 0, size);
+            case 2 -> Kernels.INSTANCE.sigmoid(values, null, 0, size);
+            case 3 -> {}
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        }
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best])
+                best = i;
+        }
+        return best;
+    }
+
+    /**
+     * The scratch arrays of a single thread's forward pass.
+     */
+    private static class Scratch {
+        final byte[] quantized;
+        final double[][] values;
+
+        Scratch(int[] sizes) {
+            int widest = 0;
+            values = new double[sizes.length][];
+            for (int layer = 0; layer < sizes.length; layer++) {
+                widest = Math.max(widest, sizes[layer]);
+                values[layer] = new double[sizes[layer]];
+            }
+            quantized = new byte[widest];
+        }
+    }
+}
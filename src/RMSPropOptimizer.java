@@ -0,0 +1,44 @@
+/**
+ * RMSProp, which divides each weight's step by a decaying average of its squared gradients, so every weight moves at
+ * a similar rate no matter the scale of its gradients.
+ */
+public class RMSPropOptimizer extends Optimizer {
+    // The fraction of the mean square kept from one update to the next.
+    private final double decay;
+    // Added to the root mean square so a weight with tiny gradients does not take huge steps.
+    private final double epsilon;
+
+    /**
+     * Creates an RMSProp optimizer with a decay of 0.9 and an epsilon of 1e-8.
+     */
+    public RMSPropOptimizer() {
+        this(0.9, 1e-8);
+    }
+
+    /**
+     * @param decay   The fraction of the mean square kept from one update to the next, [0.0,1.0).
+     * @param epsilon Added to the root mean square of each weight's gradients, above 0.
+     */
+    public RMSPropOptimizer(double decay, double epsilon) {
+        super(1);
+        if (decay < 0.0 || decay >= 1.0) {
+            throw new IllegalArgumentException("Error: Expected a decay in [0, 1), got " + decay);
+        }
+        if (epsilon <= 0.0) {
+            throw new IllegalArgumentException("Error: Expected an epsilon above 0, got " + epsilon);
+        }
+        this.decay = decay;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    protected double update(double[] values, double[] gradients, double[][] state, int length, double learningRate,
+                            double scale, long step) {
+        return Kernels.INSTANCE.rmsProp(values, gradients, state[0], length, scale, learningRate, decay, epsilon);
+    }
+
+    @Override
+    public String toString() {
+        return "RMSProp(" + decay + ")";
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * An inference-only copy of a pruned NeuralNetwork, with each layer's kept weights stored as compressed sparse rows.
+ * Each neuron only multiplies the inputs its kept weights connect to, so a layer costs time and memory in proportion
+ * to its kept weights rather than to its full size. Layers that were not pruned are stored the same way, with every
+ * weight kept. The outputs are exactly those of NeuralNetwork.predict() on the scalar kernels, as each neuron sums its
+ * kept weights in the same order and then adds its bias.
+ * <pre>
+ * nn.pruneToSparsity(0.9);
+ * nn.fineTune(inputs, expected, 10, 32);
+ * SparseNetwork sparse = new SparseNetwork(nn);
+ * sparse.predict(inputs, outputs);
+ * </pre>
+ */
+public class SparseNetwork {
+    public final int layers;
+    // The number of neurons in each layer.
+    private final int[] sizes;
+    // The activation function of each layer.
+    private final int[] activationFunctions;
+    // The kept weights of row n of each layer are values[rowOffsets[n], rowOffsets[n + 1]).
+    private final int[][] rowOffsets;
+    // The input index of each kept weight.
+    private final int[][] columns;
+    // The kept weights of each layer, row by row.
+    private final double[][] values;
+    private final double[][] biases;
+    // The scratch outputs of each thread's hidden layers.
+    private final ThreadLocal<double[][]> scratch;
+
+    /**
+     * Compresses the kept weights of a network.
+     * @param network The network to compress, which is only read.
+     */
+    public SparseNetwork(NeuralNetwork network) {
+        this(network.layers);
+        Layer[] source = network.network;
+        for (int layer = 0; layer < layers; layer++) {
+            sizes[layer] = source[layer].size;
+            activationFunctions[layer] = source[layer].activationFunction;
+        }
+
+        for (int layer = 1; layer < layers; layer++) {
+            Layer current = source[layer];
+            int kept = current.keptWeights();
+            rowOffsets[layer] = new int[current.size + 1];
+            columns[layer] = new int[kept];
+            values[layer] = new double[kept];
+            biases[layer] = current.biases.clone();
+            int count = 0;
+            for (int n = 0; n < current.size; n++) {
+                int row = n * current.inputs;
+                for (int i = 0; i < current.inputs; i++) {
+                    if (current.mask == null || current.mask[row + i]) {
+                        values[layer][count] = current.weights[row + i];
+                        columns[layer][count++] = i;
+                    }
+                }
+                rowOffsets[layer][n + 1] = count;
+            }
+        }
+    }
+
+    /**
+     * Allocates the per-layer arrays of a network with the given number of layers, to be filled in by the caller.
+     */
+    private SparseNetwork(int layers) {
+        this.layers = layers;
+        sizes = new int[layers];
+        activationFunctions = new int[layers];
+        rowOffsets = new int[layers][];
+        columns = new int[layers][];
+        values = new double[layers][];
+        biases = new double[layers][];
+        scratch = ThreadLocal.withInitial(() -> {
+            double[][] outputs = new double[layers][];
+            for (int layer = 0; layer < layers; layer++) {
+                outputs[layer] = new double[sizes[layer]];
+            }
+            return outputs;
+        });
+    }
+
+    /**
+     * Loads a binary model file written by NeuralNetwork.saveBinary(). The compressed sparse rows of pruned layers are
+     * read as they are, so the full weight matrix of a pruned layer is never built; layers stored dense are kept whole.
+     * @param path The file to be read from.
+     * @return The compressed network.
+     * @throws IOException Thrown if the file cannot be read or is not a valid model file.
+     */
+    public static SparseNetwork load(Path path) throws IOException {
+        ByteBuffer buffer = ModelFile.map(path);
+        int count = ModelFile.checkHeader(buffer, path);
+        int entry = ModelFile.entrySize(buffer.getInt(4));
+        SparseNetwork network = new SparseNetwork(count);
+        int position = ModelFile.HEADER + entry * count;
+        for (int layer = 0; layer < count; layer++) {
+            int offset = ModelFile.HEADER + entry * layer;
+            int size = buffer.getInt(offset);
+            int activationFunction = buffer.getInt(offset + 4);
+            int format = entry > 8 ? buffer.getInt(offset + 8) : ModelFile.DENSE;
+            int inputs = layer == 0 ? 0 : network.sizes[layer - 1];
+            ModelFile.checkLayer(size, inputs, activationFunction, layer, path);
+            network.sizes[layer] = size;
+            network.activationFunctions[layer] = activationFunction;
+            double[] biases = new double[size];
+            position = ModelFile.readDoubles(buffer, position, biases, path);
+            if (layer == 0)
+                continue;
+            network.biases[layer] = biases;
+
+            int[] rowOffsets = new int[size + 1];
+            if (format == ModelFile.DENSE) {
+                // Every weight is kept, row by row.
+                double[] values = new double[size * inputs];
+                int[] columns = new int[size * inputs];
+                position = ModelFile.readDoubles(buffer, position, values, path);
+                for (int n = 0; n < size; n++) {
+                    for (int i = 0; i < inputs; i++) {
+                        columns[n * inputs + i] = i;
+                    }
+                    rowOffsets[n + 1] = (n + 1) * inputs;
+                }
+                network.values[layer] = values;
+                network.columns[layer] = columns;
+            } else if (format == ModelFile.SPARSE) {
+                int kept = ModelFile.checkKept(buffer.getInt(offset + 12), size, inputs, path);
+                double[] values = new double[kept];
+                int[] columns = new int[kept];
+                position = ModelFile.readSparse(buffer, position, values, rowOffsets, columns, inputs, path);
+                network.values[layer] = values;
+                network.columns[layer] = columns;
+            } else {
+                throw new IOException("Error: Unknown layer format " + format + " in " + path);
+            }
+            network.rowOffsets[layer] = rowOffsets;
+        }
+        return network;
+    }
+
+    /**
+     * Calculates the outputs of the network for the given inputs. Any number of threads may predict at once.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @throws IllegalArgumentException Ensure that inputs is equal in length to the input layer.
+     */
+    public void predict(double[] inputs, double[] outputs) {
+        if (inputs.length != sizes[0]) {
+            throw new IllegalArgumentException("Error: Expected an array equal in size to the input layer, got " +
+                    inputs.length + " when expecting " + sizes[0]);
+        }
+        double[][] state = scratch.get();
+        double[] last = inputs;
+        for (int layer = 1; layer < layers; layer++) {
+            double[] results = layer == layers - 1 ? outputs : state[layer];
+            int[] offsets = rowOffsets[layer];
+            int[] indices = columns[layer];
+            double[] weights = values[layer];
+            double[] layerBiases = biases[layer];
+            for (int n = 0; n < sizes[layer]; n++) {
+                double sum = 0;
+                for (int k = offsets[n]; k < offsets[n + 1]; k++) {
+                    sum += weights[k] * last[indices[k]];
+                }
+                results[n] = layerBiases[n] + sum;
+            }
+            activate(activationFunctions[layer], results, sizes[layer]);
+            last = results;
+        }
+    }
+
+    /**
+     * @return The number of weights stored.
+     */
+    public long nonZeros() {
+        long count = 0;
+        for (int layer = 1; layer < layers; layer++) {
+            count += values[layer].length;
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of bytes taken by the stored weights and their row offsets and column indices.
+     */
+    public long weightBytes() {
+        long bytes = 0;
+        for (int layer = 1; layer < layers; layer++) {
+            bytes += 12L * values[layer].length + 4L * rowOffsets[layer].length;
+        }
+        return bytes;
+    }
+
+    private static void activate(int activationFunction, double[] values, int size) {
+        switch (activationFunction) {
+            case 1 -> Kernels.INSTANCE.relu(values, null, 0, size);
+            case 2 -> Kernels.INSTANCE.sigmoid(values, null, 0, size);
+            case 3 -> {}
+            default -> throw new IllegalStateException("Unexpected value: " + activationFunction);
+        }
+    }
+}
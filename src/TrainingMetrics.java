@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A MetricsListener that keeps running totals of everything a NeuralNetwork reports: the time spent in each layer
+ * going forward and backward, training throughput, histograms of training batch and inference latency, the loss of
+ * each epoch, and the size of each layer's weight updates. Every method is synchronized, so it may be shared with a
+ * ParallelTrainer, and a summary is printed by toString().
+ */
+public class TrainingMetrics implements MetricsListener {
+    // The total time spent calculating each layer, and the number of samples calculated.
+    private final long[] forwardNanos;
+    private final long[] forwardSamples;
+    // The total time spent propagating each layer's errors and gradients, and the number of samples propagated.
+    private final long[] backwardNanos;
+    private final long[] backwardSamples;
+    // The last and summed weight update magnitude of each layer, and the number of updates.
+    private final double[] lastUpdate;
+    private final double[] updateSum;
+    private final long[] updates;
+    // The latency of each weight update, from its first example until the weights changed.
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    // The latency of each calculate(), predict() or calculateBatch().
+    private final LatencyHistogram inferenceLatency = new LatencyHistogram();
+    private long trainingSamples;
+    private long trainingNanos;
+    private long inferenceSamples;
+    // The mean loss of each completed epoch.
+    private final List<Double> epochLosses = new ArrayList<>();
+
+    /**
+     * @param layers The number of layers of the network being measured, including the input layer.
+     */
+    public TrainingMetrics(int layers) {
+        forwardNanos = new long[layers];
+        forwardSamples = new long[layers];
+        backwardNanos = new long[layers];
+        backwardSamples = new long[layers];
+        lastUpdate = new double[layers];
+        updateSum = new double[layers];
+        updates = new long[layers];
+    }
+
+    @Override
+    public synchronized void layerForward(int layer, int samples, long nanos) {
+        forwardNanos[layer] += nanos;
+        forwardSamples[layer] += samples;
+    }
+
+    @Override
+    public synchronized void layerBackward(int layer, int samples, long nanos) {
+        backwardNanos[layer] += nanos;
+        backwardSamples[layer] += samples;
+    }
+
+    @Override
+    public synchronized void batchCompleted(int samples, long nanos, double loss) {
+        batchLatency.record(nanos);
+        trainingSamples += samples;
+        trainingNanos += nanos;
+    }
+
+    @Override
+    public synchronized void inferenceCompleted(int samples, long nanos) {
+        inferenceLatency.record(nanos);
+        inferenceSamples += samples;
+    }
+
+    @Override
+    public synchronized void weightsUpdated(int layer, double magnitude) {
+        lastUpdate[layer] = magnitude;
+        updateSum[layer] += magnitude;
+        updates[layer]++;
+    }
+
+    @Override
+    public synchronized void epochCompleted(int epoch, long samples, double loss) {
+        epochLosses.add(loss);
+    }
+
+    /**
+     * @return The number of training examples per second of time spent training.
+     */
+    public synchronized double samplesPerSecond() {
+        return trainingNanos == 0 ? 0 : trainingSamples * 1e9 / trainingNanos;
+    }
+
+    /**
+     * @param layer The index of the layer.
+     * @return The mean time spent calculating a single sample of the layer.
+     */
+    public synchronized double forwardNanosPerSample(int layer) {
+        return forwardSamples[layer] == 0 ? 0 : (double) forwardNanos[layer] / forwardSamples[layer];
+    }
+
+    /**
+     * @param layer The index of the layer.
+     * @return The mean time spent propagating a single sample back through the layer.
+     */
+    public synchronized double backwardNanosPerSample(int layer) {
+        return backwardSamples[layer] == 0 ? 0 : (double) backwardNanos[layer] / backwardSamples[layer];
+    }
+
+    /**
+     * @param layer The index of the layer.
+     * @return The magnitude of the last update to the layer's weights.
+     */
+    public synchronized double lastUpdateMagnitude(int layer) {
+        return lastUpdate[layer];
+    }
+
+    /**
+     * @param layer The index of the layer.
+     * @return The mean magnitude of the updates to the layer's weights.
+     */
+    public synchronized double meanUpdateMagnitude(int layer) {
+        return updates[layer] == 0 ? 0 : updateSum[layer] / updates[layer];
+    }
+
+    /**
+     * @param percentile The percentile, [0.0,100.0].
+     * @return The training batch latency at that percentile.
+     */
+    public synchronized long batchLatency(double percentile) {
+        return batchLatency.percentile(percentile);
+    }
+
+    /**
+     * @param percentile The percentile, [0.0,100.0].
+     * @return The inference latency at that percentile.
+     */
+    public synchronized long inferenceLatency(double percentile) {
+        return inferenceLatency.percentile(percentile);
+    }
+
+    /**
+     * @return The mean loss of each completed epoch, in order.
+     */
+    public synchronized double[] epochLosses() {
+        return epochLosses.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * Clears every total, keeping the losses of completed epochs.
+     */
+    public synchronized void reset() {
+        for (int layer = 0; layer < forwardNanos.length; layer++) {
+            forwardNanos[layer] = 0;
+            forwardSamples[layer] = 0;
+            backwardNanos[layer] = 0;
+            backwardSamples[layer] = 0;
+            lastUpdate[layer] = 0;
+            updateSum[layer] = 0;
+            updates[layer] = 0;
+        }
+        batchLatency.reset();
+        inferenceLatency.reset();
+        trainingSamples = 0;
+        trainingNanos = 0;
+        inferenceSamples = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Training: %d samples | %.0f samples/s%n", trainingSamples, samplesPerSecond()));
+        report.append("Batch Latency: ").append(batchLatency).append(System.lineSeparator());
+        report.append(String.format("Inference: %d samples%n", inferenceSamples));
+        report.append("Inference Latency: ").append(inferenceLatency).append(System.lineSeparator());
+        for (int layer = 1; layer < forwardNanos.length; layer++) {
+            report.append(String.format("Layer %d: forward %.1fns/sample | backward %.1fns/sample | " +
+                            "update magnitude %.6f (mean %.6f)%n", layer, forwardNanosPerSample(layer),
+                    backwardNanosPerSample(layer), lastUpdate[layer], meanUpdateMagnitude(layer)));
+        }
+        for (int epoch = 0; epoch < epochLosses.size(); epoch++) {
+            report.append(String.format("Epoch %d: loss %.6f%n", epoch, epochLosses.get(epoch)));
+        }
+        return report.toString();
+    }
+}
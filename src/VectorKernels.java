@@ -0,0 +1,366 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Kernels vectorized with the Vector API, using the widest vectors the CPU supports (4 doubles on AVX2, 8 on
+ * AVX-512). Each loop handles whole vectors and finishes the remainder with the scalar loop. This class needs
+ * <code>--add-modules jdk.incubator.vector</code> at both compile and run time; Kernels falls back to its scalar
+ * loops when it cannot be loaded.
+ */
+public class VectorKernels extends Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Floats fit twice as many lanes into the same vector width.
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // Bytes are loaded at the full vector width and widened to ints a part at a time before multiplying, as an int
+    // vector of the same width holds a quarter of the lanes.
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int PARTS = BYTES.length() / INTS.length();
+
+    public VectorKernels() {
+        // Fail here, while Kernels can still fall back, if the vectors would not be intrinsified.
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("Error: No vector support for doubles");
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector-" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = x.fma(y, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public void axpy(double scale, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, scale);
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            a.fma(factor, b).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += scale * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void relu(double[] values, double[] derivatives, int from, int to) {
+        int step = SPECIES.length();
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        int i = from;
+        for (; i < bound; i += step) {
+            DoubleVector value = DoubleVector.fromArray(SPECIES, values, i).max(zero);
+            value.intoArray(values, i);
+            if (derivatives != null) {
+                VectorMask<Double> positive = value.compare(VectorOperators.GT, 0.0);
+                zero.blend(one, positive).intoArray(derivatives, i);
+            }
+        }
+        super.relu(values, derivatives, i, to);
+    }
+
+    @Override
+    public void sigmoid(double[] values, double[] derivatives, int from, int to) {
+        int step = SPECIES.length();
+        int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector half = DoubleVector.broadcast(SPECIES, 0.5);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        int i = from;
+        for (; i < bound; i += step) {
+            DoubleVector sum = DoubleVector.fromArray(SPECIES, values, i);
+            // 0.5 * (sum / (1 + |sum|)) + 0.5
+            DoubleVector value = sum.div(sum.abs().add(one)).fma(half, half);
+            value.intoArray(values, i);
+            if (derivatives != null) {
+                // 1 / (2 * x^2), where x = 1 + |value|
+                DoubleVector x = value.abs().add(one);
+                half.div(x.mul(x)).intoArray(derivatives, i);
+            }
+        }
+        super.sigmoid(values, derivatives, i, to);
+    }
+
+    @Override
+    public double momentum(double[] values, double[] gradients, double[] velocity, int length, double scale,
+                           double momentum, boolean nesterov) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, scale);
+        DoubleVector decay = DoubleVector.broadcast(SPECIES, momentum);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector sum = zero;
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector g = DoubleVector.fromArray(SPECIES, gradients, i).mul(factor);
+            DoubleVector v = DoubleVector.fromArray(SPECIES, velocity, i).fma(decay, g);
+            DoubleVector change = nesterov ? v.fma(decay, g) : v;
+            v.intoArray(velocity, i);
+            DoubleVector.fromArray(SPECIES, values, i).add(change).intoArray(values, i);
+            zero.intoArray(gradients, i);
+            sum = change.fma(change, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double g = scale * gradients[i];
+            double v = momentum * velocity[i] + g;
+            double change = nesterov ? momentum * v + g : v;
+            velocity[i] = v;
+            values[i] += change;
+            gradients[i] = 0.0;
+            result += change * change;
+        }
+        return result;
+    }
+
+    @Override
+    public double rmsProp(double[] values, double[] gradients, double[] squares, int length, double scale,
+                          double learningRate, double decay, double epsilon) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, scale);
+        DoubleVector rate = DoubleVector.broadcast(SPECIES, learningRate);
+        DoubleVector keep = DoubleVector.broadcast(SPECIES, decay);
+        DoubleVector blend = DoubleVector.broadcast(SPECIES, 1.0 - decay);
+        DoubleVector offset = DoubleVector.broadcast(SPECIES, epsilon);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector sum = zero;
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector g = DoubleVector.fromArray(SPECIES, gradients, i).mul(factor);
+            DoubleVector square = DoubleVector.fromArray(SPECIES, squares, i).mul(keep).add(g.mul(g).mul(blend));
+            DoubleVector change = g.mul(rate).div(square.sqrt().add(offset));
+            square.intoArray(squares, i);
+            DoubleVector.fromArray(SPECIES, values, i).add(change).intoArray(values, i);
+            zero.intoArray(gradients, i);
+            sum = change.fma(change, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double g = scale * gradients[i];
+            double square = decay * squares[i] + (1.0 - decay) * g * g;
+            double change = learningRate * g / (Math.sqrt(square) + epsilon);
+            squares[i] = square;
+            values[i] += change;
+            gradients[i] = 0.0;
+            result += change * change;
+        }
+        return result;
+    }
+
+    @Override
+    public double adam(double[] values, double[] gradients, double[] moments, double[] squares, int length,
+                       double scale, double stepSize, double beta1, double beta2, double epsilon) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, scale);
+        DoubleVector rate = DoubleVector.broadcast(SPECIES, stepSize);
+        DoubleVector keep1 = DoubleVector.broadcast(SPECIES, beta1);
+        DoubleVector blend1 = DoubleVector.broadcast(SPECIES, 1.0 - beta1);
+        DoubleVector keep2 = DoubleVector.broadcast(SPECIES, beta2);
+        DoubleVector blend2 = DoubleVector.broadcast(SPECIES, 1.0 - beta2);
+        DoubleVector offset = DoubleVector.broadcast(SPECIES, epsilon);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector sum = zero;
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector g = DoubleVector.fromArray(SPECIES, gradients, i).mul(factor);
+            DoubleVector moment = DoubleVector.fromArray(SPECIES, moments, i).mul(keep1).add(g.mul(blend1));
+            DoubleVector square = DoubleVector.fromArray(SPECIES, squares, i).mul(keep2).add(g.mul(g).mul(blend2));
+            DoubleVector change = moment.mul(rate).div(square.sqrt().add(offset));
+            moment.intoArray(moments, i);
+            square.intoArray(squares, i);
+            DoubleVector.fromArray(SPECIES, values, i).add(change).intoArray(values, i);
+            zero.intoArray(gradients, i);
+            sum = change.fma(change, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double g = scale * gradients[i];
+            double moment = beta1 * moments[i] + (1.0 - beta1) * g;
+            double square = beta2 * squares[i] + (1.0 - beta2) * g * g;
+            double change = stepSize * moment / (Math.sqrt(square) + epsilon);
+            moments[i] = moment;
+            squares[i] = square;
+            values[i] += change;
+            gradients[i] = 0.0;
+            result += change * change;
+        }
+        return result;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = FLOATS.length();
+        int bound = FLOATS.loopBound(length);
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (; i < bound; i += step) {
+            FloatVector x = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector y = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            sum = x.fma(y, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public void axpy(float scale, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int step = FLOATS.length();
+        int bound = FLOATS.loopBound(length);
+        FloatVector factor = FloatVector.broadcast(FLOATS, scale);
+        int i = 0;
+        for (; i < bound; i += step) {
+            FloatVector a = FloatVector.fromArray(FLOATS, x, xOffset + i);
+            FloatVector b = FloatVector.fromArray(FLOATS, y, yOffset + i);
+            a.fma(factor, b).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += scale * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void relu(float[] values, float[] derivatives, int from, int to) {
+        int step = FLOATS.length();
+        int bound = from + FLOATS.loopBound(to - from);
+        FloatVector zero = FloatVector.zero(FLOATS);
+        FloatVector one = FloatVector.broadcast(FLOATS, 1.0f);
+        int i = from;
+        for (; i < bound; i += step) {
+            FloatVector value = FloatVector.fromArray(FLOATS, values, i).max(zero);
+            value.intoArray(values, i);
+            if (derivatives != null) {
+                zero.blend(one, value.compare(VectorOperators.GT, 0.0f)).intoArray(derivatives, i);
+            }
+        }
+        super.relu(values, derivatives, i, to);
+    }
+
+    @Override
+    public void sigmoid(float[] values, float[] derivatives, int from, int to) {
+        int step = FLOATS.length();
+        int bound = from + FLOATS.loopBound(to - from);
+        FloatVector half = FloatVector.broadcast(FLOATS, 0.5f);
+        FloatVector one = FloatVector.broadcast(FLOATS, 1.0f);
+        int i = from;
+        for (; i < bound; i += step) {
+            FloatVector sum = FloatVector.fromArray(FLOATS, values, i);
+            FloatVector value = sum.div(sum.abs().add(one)).fma(half, half);
+            value.intoArray(values, i);
+            if (derivatives != null) {
+                FloatVector x = value.abs().add(one);
+                half.div(x.mul(x)).intoArray(derivatives, i);
+            }
+        }
+        super.sigmoid(values, derivatives, i, to);
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int step = BYTES.length();
+        int bound = BYTES.loopBound(length);
+        IntVector sum = IntVector.zero(INTS);
+        int i = 0;
+        for (; i < bound; i += step) {
+            ByteVector x = ByteVector.fromArray(BYTES, a, aOffset + i);
+            ByteVector y = ByteVector.fromArray(BYTES, b, bOffset + i);
+            for (int part = 0; part < PARTS; part++) {
+                IntVector xs = (IntVector) x.convertShape(VectorOperators.B2I, INTS, part);
+                IntVector ys = (IntVector) y.convertShape(VectorOperators.B2I, INTS, part);
+                sum = sum.add(xs.mul(ys));
+            }
+        }
+        int result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, ByteBuffer b, int bIndex, int length) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        ByteOrder order = b.order();
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromByteBuffer(SPECIES, b, (bIndex + i) << 3, order);
+            sum = x.fma(y, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b.getDouble((bIndex + i) << 3);
+        }
+        return result;
+    }
+
+    @Override
+    public void axpy(double scale, ByteBuffer x, int xIndex, double[] y, int yOffset, int length) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        ByteOrder order = x.order();
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, scale);
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector a = DoubleVector.fromByteBuffer(SPECIES, x, (xIndex + i) << 3, order);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            a.fma(factor, b).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += scale * x.getDouble((xIndex + i) << 3);
+        }
+    }
+
+    @Override
+    public void axpy(double scale, double[] x, int xOffset, ByteBuffer y, int yIndex, int length) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(length);
+        ByteOrder order = y.order();
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, scale);
+        int i = 0;
+        for (; i < bound; i += step) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector b = DoubleVector.fromByteBuffer(SPECIES, y, (yIndex + i) << 3, order);
+            a.fma(factor, b).intoByteBuffer(y, (yIndex + i) << 3, order);
+        }
+        for (; i < length; i++) {
+            int offset = (yIndex + i) << 3;
+            y.putDouble(offset, y.getDouble(offset) + scale * x[xOffset + i]);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes consistent snapshots of a network that is being trained online, so other threads can keep predicting
+ * while it learns. The trainer owns the network and updates it in place as usual; every so many steps, or once enough
+ * time has passed, the publisher copies its weights into a snapshot and swaps the snapshot in atomically. Readers
+ * predict with the current snapshot, which never changes while they hold it, and never wait on the trainer or each
+ * other.
+ * <pre>
+ * WeightPublisher publisher = new WeightPublisher(nn, 100, 50);
+ * // The training thread.
+ * nn.backProp(inputs, expectedOutputs);
+ * publisher.step();
+ * // Any serving thread.
+ * try (WeightPublisher.Snapshot snapshot = publisher.acquire()) {
+ *     snapshot.predict(inputs, outputs);
+ * }
+ * </pre>
+ * Each snapshot counts the readers holding it. Once a newer snapshot is published and the last reader releases the old
+ * one, its buffers are reused for a later snapshot rather than reallocated, so publishing does not allocate once there
+ * are enough snapshots to go around.
+ */
+public class WeightPublisher {
+    // The network being trained, which only the training thread touches.
+    private final NeuralNetwork network;
+    // The number of steps and the nanoseconds after which step() publishes, or 0 to never publish on either.
+    private final int publishSteps;
+    private final long publishNanos;
+    // The snapshot readers acquire.
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+    // Every snapshot ever created, to be reused once no one holds them.
+    private final List<Snapshot> snapshots = new ArrayList<>();
+    // The steps taken in total and since the last snapshot was published.
+    private long steps;
+    private int pendingSteps;
+    // When the last snapshot was published.
+    private long publishedAt;
+
+    /**
+     * Publishes the network's current weights as the first snapshot.
+     * @param network       The network being trained, which only the training thread may use from now on.
+     * @param publishSteps  The number of steps after which step() publishes a new snapshot, or 0 for no limit.
+     * @param publishMillis The milliseconds after which step() publishes a new snapshot, or 0 for no limit.
+     */
+    public WeightPublisher(NeuralNetwork network, int publishSteps, long publishMillis) {
+        if (publishSteps < 0 || publishMillis < 0) {
+            throw new IllegalArgumentException("Error: Expected a publishing interval of at least 0, got " +
+                    publishSteps + " steps and " + publishMillis + " ms");
+        }
+        this.network = network;
+        this.publishSteps = publishSteps;
+        publishNanos = publishMillis * 1_000_000;
+        publish();
+    }
+
+    /**
+     * Counts a training step, e.g. a single backProp() or trainBatch(), and publishes the weights if enough steps or
+     * time have passed since the last snapshot. Call it from the training thread after each update.
+     * @return True if a new snapshot was published.
+     */
+    public boolean step() {
+        steps++;
+        pendingSteps++;
+        if (publishSteps > 0 && pendingSteps >= publishSteps ||
+                publishNanos > 0 && System.nanoTime() - publishedAt >= publishNanos) {
+            publish();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies the network's current weights into a free snapshot and makes it the one readers acquire. Call it from
+     * the training thread.
+     */
+    public void publish() {
+        Snapshot snapshot = null;
+        for (Snapshot free : snapshots) {
+            // Claim a snapshot no reader holds, which stops any reader from acquiring it while it is overwritten.
+            if (free.references.compareAndSet(0, -1)) {
+                refresh(free.network);
+                snapshot = free;
+                break;
+            }
+        }
+        if (snapshot == null) {
+            snapshot = new Snapshot(new NeuralNetwork(network));
+            snapshots.add(snapshot);
+        }
+        Snapshot previous = current.get();
+        snapshot.version = previous == null ? 1 : previous.version + 1;
+        snapshot.step = steps;
+        // The publisher holds a reference to the current snapshot, which it gives up once it is replaced.
+        snapshot.references.set(1);
+        current.set(snapshot);
+        if (previous != null)
+            previous.close();
+        pendingSteps = 0;
+        publishedAt = System.nanoTime();
+    }
+
+    /**
+     * Copies the network into a reused snapshot's network: its weights, biases and learning rates, and also each
+     * layer's activation function and pruning mask, which copyWeightFrom() leaves alone but the trainer may change
+     * with setLayerActivation() or prune().
+     */
+    private void refresh(NeuralNetwork copy) {
+        copy.copyWeightFrom(network);
+        for (int layer = 1; layer < network.layers; layer++) {
+            Layer from = network.network[layer];
+            Layer to = copy.network[layer];
+            to.activationFunction = from.activationFunction;
+            if (from.mask == null) {
+                to.mask = null;
+            } else if (to.mask == null) {
+                to.mask = from.mask.clone();
+            } else {
+                System.arraycopy(from.mask, 0, to.mask, 0, from.mask.length);
+            }
+        }
+    }
+
+    /**
+     * Acquires the latest snapshot, which stays unchanged until it is closed. Any thread may call it, and it never
+     * blocks.
+     * @return The latest snapshot, to be closed once the reader is done with it.
+     */
+    public Snapshot acquire() {
+        while (true) {
+            Snapshot snapshot = current.get();
+            if (snapshot.retain()) {
+                // The snapshot may have been replaced and reused between reading and retaining it, in which case it
+                // holds whatever was published into it, so only keep it if it is still the latest.
+                if (current.get() == snapshot)
+                    return snapshot;
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Predicts with the latest snapshot, as NeuralNetwork.predict() does, from any thread.
+     * @param inputs  The array of doubles representing data, of equal size to the input layer.
+     * @param outputs The array to store the outputs into, of equal size to the output layer.
+     * @return The version of the snapshot that was used.
+     */
+    public long predict(double[] inputs, double[] outputs) {
+        try (Snapshot snapshot = acquire()) {
+            snapshot.predict(inputs, outputs);
+            return snapshot.version;
+        }
+    }
+
+    /**
+     * @return The version of the latest snapshot, which starts at 1 and is bumped with each one published.
+     */
+    public long getVersion() {
+        return current.get().version;
+    }
+
+    /**
+     * @return The number of snapshots allocated so far, which stops growing once enough are recycled.
+     */
+    public int getSnapshots() {
+        return snapshots.size();
+    }
+
+    /**
+     * An immutable copy of the network's weights at one point in training. Close it once done predicting, so its
+     * buffers can be reused.
+     */
+    public static class Snapshot implements AutoCloseable {
+        // The copy of the network, which only changes while no one holds the snapshot.
+        private final NeuralNetwork network;
+        // The number of holders, including the publisher while it is the latest, or -1 while it is being overwritten.
+        private final AtomicInteger references = new AtomicInteger(-1);
+        // The version of the snapshot, and the training steps taken before it.
+        private volatile long version;
+        private volatile long step;
+
+        private Snapshot(NeuralNetwork network) {
+            this.network = network;
+        }
+
+        /**
+         * Adds a holder, unless no one holds the snapshot, in which case it may be about to be reused.
+         * @return True if the snapshot was retained.
+         */
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count <= 0)
+                    return false;
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Calculates the outputs of the snapshot's network for the given inputs, see NeuralNetwork.predict().
+         * @param inputs  The array of doubles representing data, of equal size to the input layer.
+         * @param outputs The array to store the outputs into, of equal size to the output layer.
+         */
+        public void predict(double[] inputs, double[] outputs) {
+            network.predict(inputs, outputs);
+        }
+
+        /**
+         * @return The snapshot's network, which must only be read, and only until the snapshot is closed.
+         */
+        public NeuralNetwork getNetwork() {
+            return network;
+        }
+
+        /**
+         * @return The version of the snapshot, which starts at 1 and is bumped with each one published.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return The number of training steps taken before the snapshot was published.
+         */
+        public long getStep() {
+            return step;
+        }
+
+        /**
+         * Releases the snapshot. It must not be used again afterwards.
+         */
+        @Override
+        public void close() {
+            references.decrementAndGet();
+        }
+    }
+}
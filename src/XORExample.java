@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Random;
 
 public class XORExample {
@@ -5,12 +6,21 @@ public class XORExample {
         // Create and initialize the NeuralNetwork.
         NeuralNetwork nn = new NeuralNetwork(2, 1, 1, new int[] {4}, 0.02);
         nn.initialize();
+        // Pass --adam to update the weights with Adam rather than plain gradient descent.
+        if (Arrays.asList(args).contains("--adam"))
+            nn.setOptimizer(new AdamOptimizer());
+        // Pass --metrics to collect the time spent in each layer, the loss of each session and the size of each update.
+        TrainingMetrics metrics = null;
+        if (Arrays.asList(args).contains("--metrics")) {
+            metrics = new TrainingMetrics(nn.layers);
+            nn.setMetricsListener(metrics);
+        }
 
         // Create variables to test the network.
         double loss = 1.0;
         double sessionLength = 50;
-        double[] inputs;
-        double[] outputs;
+        double[] inputs = new double[2];
+        double[] outputs = new double[1];
         double[] expectedOutputs = new double[1];
         long startTime = System.nanoTime();
         long epochStartTime;
@@ -26,7 +36,8 @@ public class XORExample {
             for (int i = 0; i < sessionLength; i++) {
                 epochStartTime = System.nanoTime();
                 // Create new inputs to XOR.
-                inputs = new double[] {random.nextInt(2), random.nextInt(2)};
+                inputs[0] = random.nextInt(2);
+                inputs[1] = random.nextInt(2);
 
                 // Determine what the inputs should return.
                 if (inputs[0] == 1 && inputs[1] == 1)
@@ -37,25 +48,31 @@ public class XORExample {
                 // Perform a backPropagation.
                 nn.backProp(inputs, expectedOutputs);
                 // Sum our loss.
-                loss += Math.pow(nn.getOutputs()[0] - expectedOutputs[0], 2) / sessionLength;
+                nn.getOutputs(outputs);
+                loss += Math.pow(outputs[0] - expectedOutputs[0], 2) / sessionLength;
                 avEpochTime += (System.nanoTime() - epochStartTime) / sessionLength;
             }
+            nn.endEpoch();
             // Increment epochs to keep track of how many have been performed.
             epochs += sessionLength;
             // Print a debugging statement.
             System.out.printf("Epochs: %5d | MSE: %6.4f | Average Time per Epoch: %6.0fns or %.4fms\n",
                     epochs, loss, avEpochTime, avEpochTime / 1000000.0);
         }
+        // Print where the training time went.
+        if (metrics != null)
+            System.out.println(metrics);
         // Perform a few example XOR statements.
         for (int i = 0; i < 10; i++) {
             // Generate new inputs.
-            inputs = new double[] {random.nextInt(2), random.nextInt(2)};
+            inputs[0] = random.nextInt(2);
+            inputs[1] = random.nextInt(2);
             // Set our new inputs.
             nn.setInputs(inputs);
             // Forward propagate.
             nn.calculate();
             // Collect the outputs.
-            outputs = nn.getOutputs();
+            nn.getOutputs(outputs);
             // Print out the XOR.
             System.out.printf("XOR Operation: %.0f XOR %.0f == %3.2f\n", inputs[0], inputs[1], outputs[0]);
         }